@@ -0,0 +1,12 @@
+#!/bin/bash
+# Builds the benchmarks and runs them once per thread count in THREADS (default "1 4"), writing JMH's JSON
+# results to bench/results/threads-<n>.json. Other arguments go to JMH, for example:
+#   bench/run.sh EngineBenchmark.bid -p engine=replica -p catalogue=10000
+#   THREADS="1 2 4 8" bench/run.sh EngineBenchmark
+set -e
+cd "$(dirname "$0")/.."
+mvn -B -q package
+mkdir -p bench/results
+for t in ${THREADS:-1 4}; do
+    java -jar bench/target/benchmarks.jar -t "$t" -rf json -rff "bench/results/threads-$t.json" "$@"
+done
@@ -0,0 +1,121 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import bench.Engine;
+
+public final class BenchEngines { // Runs Replica or Server in-process for the benchmarks, without RMI
+    static {
+        // Replica reads its configuration once, when the class loads. With no backups the group commit window
+        // only adds latency, and the log is off unless asked for, e.g. -jvmArgsAppend -Dreplica.wal=true.
+        setDefault("replica.wal", "false");
+        setDefault("replica.batchWindowMicros", "0");
+        setDefault("replica.membershipRefreshMs", "3600000");
+        if (!Boolean.getBoolean("bench.verbose"))
+            System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Per-request logging
+    }
+
+    private BenchEngines() {
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null)
+            System.setProperty(key, value);
+    }
+
+    public static Engine create(String kind) throws Exception {
+        switch (kind) {
+            case "replica":
+                Replica replica = new Replica(1);
+                replica.promote(0);
+                return new AuctionEngine(replica, replica);
+            case "server":
+                return new AuctionEngine(new Server(), null);
+            default:
+                throw new IllegalArgumentException("Unknown engine " + kind);
+        }
+    }
+
+    private static final class AuctionEngine implements Engine {
+        private final Auction auction;
+        private final Replica replica; // null for Server, which has no replica state
+
+        AuctionEngine(Auction auction, Replica replica) {
+            this.auction = auction;
+            this.replica = replica;
+        }
+
+        @Override
+        public int register(String email) throws Exception {
+            return auction.register(email);
+        }
+
+        @Override
+        public int newAuction(int userID, String name, String description, int reservePrice) throws Exception {
+            AuctionSaleItem item = new AuctionSaleItem();
+            item.name = name;
+            item.description = description;
+            item.reservePrice = reservePrice;
+            return auction.newAuction(userID, item);
+        }
+
+        @Override
+        public boolean bid(int userID, int itemID, int price) throws Exception {
+            return auction.bid(userID, itemID, price);
+        }
+
+        @Override
+        public Object getSpec(int itemID) throws Exception {
+            return auction.getSpec(itemID);
+        }
+
+        @Override
+        public Object[] listItems() throws Exception {
+            return auction.listItems();
+        }
+
+        @Override
+        public Object closeAuction(int userID, int itemID) throws Exception {
+            return auction.closeAuction(userID, itemID);
+        }
+
+        @Override
+        public Object state() throws Exception {
+            if (replica == null)
+                throw new UnsupportedOperationException("Server has no replica state");
+            return replica.getState();
+        }
+
+        @Override
+        public byte[] writeState(Object state, String format) throws Exception {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            if ("compact".equals(format)) {
+                DataOutputStream out = new DataOutputStream(bytes);
+                ((ReplicaState) state).writeTo(out);
+                out.flush();
+            } else {
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(state);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public Object readState(byte[] bytes, String format) throws Exception {
+            if ("compact".equals(format)) {
+                ReplicaState state = new ReplicaState();
+                state.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+                return state;
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return in.readObject();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Encoding and decoding a ReplicaState in the compact form the log and snapshots use, and through an
+// ObjectOutputStream as RMI sends it. The encoded size is printed once per trial.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({ "1000", "10000" })
+    public int catalogue;
+
+    @Param({ "100", "10000" })
+    public int users;
+
+    @Param({ "compact", "objectStream" })
+    public String format;
+
+    Engine replica;
+    Object state;
+    byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        replica = Engines.create("replica");
+        Engines.populate(replica, new int[users], new int[catalogue]);
+        state = replica.state();
+        encoded = replica.writeState(state, format);
+        System.err.println("ReplicaState with " + users + " users and " + catalogue + " auctions: " + encoded.length
+                + " bytes " + format);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return replica.writeState(state, format);
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return replica.readState(encoded, format);
+    }
+}
@@ -0,0 +1,23 @@
+package bench;
+
+// What the benchmarks drive. The auction classes are in the default package, which JMH benchmarks can't be in
+// or import from, so BenchEngines (default package) adapts them to this and Engines loads it by name.
+public interface Engine {
+    int register(String email) throws Exception;
+
+    int newAuction(int userID, String name, String description, int reservePrice) throws Exception;
+
+    boolean bid(int userID, int itemID, int price) throws Exception;
+
+    Object getSpec(int itemID) throws Exception;
+
+    Object[] listItems() throws Exception;
+
+    Object closeAuction(int userID, int itemID) throws Exception;
+
+    Object state() throws Exception; // A ReplicaState, copied the way a primary copies it for a backup
+
+    byte[] writeState(Object state, String format) throws Exception; // "compact" (log and snapshots) or "objectStream" (RMI)
+
+    Object readState(byte[] bytes, String format) throws Exception;
+}
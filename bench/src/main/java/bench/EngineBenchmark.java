@@ -0,0 +1,119 @@
+package bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The Auction calls against a primary Replica with no backups, or the single Server, over a catalogue of open
+// auctions and a set of registered users. Threads come from JMH's -t option; see bench/run.sh.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+    @Param({ "replica", "server" })
+    public String engine;
+
+    @Param({ "1000", "10000" })
+    public int catalogue; // Open auctions
+
+    @Param({ "100", "10000" })
+    public int users;
+
+    Engine target;
+    int[] userIDs;
+    int[] itemIDs;
+    final AtomicInteger price = new AtomicInteger(); // Shared by every thread, so each bid outbids all before it
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        target = Engines.create(engine);
+        userIDs = new int[users];
+        itemIDs = new int[catalogue];
+        Engines.populate(target, userIDs, itemIDs);
+        price.set(Engines.highestSeededBid(catalogue));
+    }
+
+    @State(Scope.Thread)
+    public static class Caller { // Each thread's own random stream, seeded by its index so runs repeat
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        final int index = THREADS.getAndIncrement();
+        final SplittableRandom random = new SplittableRandom(index);
+        int[] userIDs;
+        int[] itemIDs;
+        int registered = 0;
+
+        @Setup(Level.Trial)
+        public void setup(EngineBenchmark bench) {
+            userIDs = bench.userIDs;
+            itemIDs = bench.itemIDs;
+        }
+
+        int user() {
+            return userIDs[random.nextInt(userIDs.length)];
+        }
+
+        int item() {
+            return itemIDs[random.nextInt(itemIDs.length)];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OpenAuction { // A fresh auction for each closeAuction call
+        int creator;
+        int itemID;
+
+        @Setup(Level.Invocation)
+        public void open(EngineBenchmark bench, Caller caller) throws Exception {
+            creator = caller.user();
+            itemID = bench.target.newAuction(creator, "Closing item", "Opened to be closed", 10);
+            bench.target.bid(caller.user(), itemID, 20);
+        }
+    }
+
+    @Benchmark
+    public int register(Caller caller) throws Exception {
+        return target.register("new" + caller.index + "-" + caller.registered++ + "@bench.example");
+    }
+
+    @Benchmark
+    public int newAuction(Caller caller) throws Exception {
+        return target.newAuction(caller.user(), "New item", "Created by the benchmark", 10);
+    }
+
+    @Benchmark
+    public boolean bid(Caller caller) throws Exception { // Accepted unless a later price lands on the item first
+        return target.bid(caller.user(), caller.item(), price.incrementAndGet());
+    }
+
+    @Benchmark
+    public Object getSpec(Caller caller) throws Exception {
+        return target.getSpec(caller.item());
+    }
+
+    @Benchmark
+    public Object[] listItems() throws Exception {
+        return target.listItems();
+    }
+
+    @Benchmark
+    public Object closeAuction(OpenAuction open) throws Exception {
+        return target.closeAuction(open.creator, open.itemID);
+    }
+}
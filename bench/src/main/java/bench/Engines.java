@@ -0,0 +1,26 @@
+package bench;
+
+public final class Engines {
+    private Engines() {
+    }
+
+    static Engine create(String kind) throws Exception { // "replica" (a primary with no backups) or "server"
+        return (Engine) Class.forName("BenchEngines").getMethod("create", String.class).invoke(null, kind);
+    }
+
+    // Registers users and opens catalogue auctions, every other one bid on, so reads return realistic items
+    static void populate(Engine engine, int[] userIDs, int[] itemIDs) throws Exception {
+        for (int i = 0; i < userIDs.length; i++) {
+            userIDs[i] = engine.register("user" + i + "@bench.example");
+        }
+        for (int i = 0; i < itemIDs.length; i++) {
+            itemIDs[i] = engine.newAuction(userIDs[i % userIDs.length], "Item " + i, "Description of item " + i, 10);
+            if (i % 2 == 0)
+                engine.bid(userIDs[(i + 1) % userIDs.length], itemIDs[i], 100 + i);
+        }
+    }
+
+    static int highestSeededBid(int catalogue) { // Any price above this outbids every auction populate opened
+        return 100 + catalogue;
+    }
+}
@@ -0,0 +1,45 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Copying a primary's ReplicaState, as it does for a checkpoint or a backup that needs the full state.
+// CodecBenchmark measures encoding the copy.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateBenchmark {
+    @Param({ "1000", "10000" })
+    public int catalogue;
+
+    @Param({ "100", "10000" })
+    public int users;
+
+    Engine replica;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        replica = Engines.create("replica");
+        Engines.populate(replica, new int[users], new int[catalogue]);
+    }
+
+    @Benchmark
+    public Object construct() throws Exception {
+        return replica.state();
+    }
+}
@@ -0,0 +1,361 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadGenerator { // Drives a mix of Auction calls at the FrontEnd from many threads and reports latencies
+    enum Op { REGISTER, NEW_AUCTION, BID, LIST_ITEMS, GET_SPEC, CLOSE_AUCTION }
+
+    static final class Stats { // One thread's results, merged once the run is over
+        final LatencyHistogram[] latency = new LatencyHistogram[Op.values().length];
+        final long[] errors = new long[Op.values().length];
+
+        Stats() {
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LatencyHistogram();
+            }
+        }
+
+        void add(Stats other) {
+            for (int i = 0; i < latency.length; i++) {
+                latency[i].add(other.latency[i]);
+                errors[i] += other.errors[i];
+            }
+        }
+    }
+
+    static final class Pool { // Open auctions and their creators, so bids and closes go to auctions that exist
+        private final List<int[]> open = new ArrayList<>();
+
+        synchronized void add(int itemID, int creator) {
+            open.add(new int[] { itemID, creator });
+        }
+
+        synchronized int[] pick(SplittableRandom random) {
+            return open.isEmpty() ? null : open.get(random.nextInt(open.size()));
+        }
+
+        synchronized int[] take(SplittableRandom random) { // Removes the auction so only one thread closes it
+            if (open.isEmpty())
+                return null;
+            int i = random.nextInt(open.size());
+            int[] item = open.get(i);
+            open.set(i, open.get(open.size() - 1));
+            open.remove(open.size() - 1);
+            return item;
+        }
+    }
+
+    private final Auction server;
+    private final Map<String, String> options;
+    private final Op[] mix; // 100 slots, each operation taking its share
+    private final int threads;
+    private final double rate; // Requests per second over all threads, 0 to send as fast as the replies come back
+    private final Pool pool = new Pool();
+    private int[] userIDs;
+    private final AtomicInteger registered = new AtomicInteger();
+    private volatile boolean recording = false;
+    private volatile boolean running = true;
+
+    LoadGenerator(Auction server, Map<String, String> options) {
+        this.server = server;
+        this.options = options;
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.mix = parseMix(options.getOrDefault("mix", "bid:50,getSpec:20,listItems:10,newAuction:10,closeAuction:5,register:5"));
+    }
+
+    private static Op[] parseMix(String spec) { // name:weight,... with weights summing to 100
+        String[] parts = spec.split(",");
+        Op[] ops = new Op[parts.length];
+        int[] weights = new int[parts.length];
+        int total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String[] kv = parts[i].trim().split(":");
+            if (kv.length != 2)
+                throw new IllegalArgumentException("Mix entries are name:weight, not " + parts[i].trim());
+            ops[i] = opNamed(kv[0]);
+            try {
+                weights[i] = Integer.parseInt(kv[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Mix weight for " + kv[0] + " isn't a number: " + kv[1]);
+            }
+            if (weights[i] < 0)
+                throw new IllegalArgumentException("Mix weight for " + kv[0] + " is negative");
+            total += weights[i];
+        }
+        if (total != 100)
+            throw new IllegalArgumentException("Mix weights must add up to 100, not " + total + ": " + spec);
+
+        Op[] slots = new Op[100];
+        int filled = 0;
+        for (int i = 0; i < ops.length; i++) {
+            for (int w = 0; w < weights[i]; w++) {
+                slots[filled++] = ops[i];
+            }
+        }
+        return slots;
+    }
+
+    private static Op opNamed(String name) {
+        for (Op op : Op.values()) {
+            if (label(op).equalsIgnoreCase(name))
+                return op;
+        }
+        throw new IllegalArgumentException("Unknown operation " + name);
+    }
+
+    private static String label(Op op) { // The Auction method name
+        switch (op) {
+            case REGISTER: return "register";
+            case NEW_AUCTION: return "newAuction";
+            case BID: return "bid";
+            case LIST_ITEMS: return "listItems";
+            case GET_SPEC: return "getSpec";
+            default: return "closeAuction";
+        }
+    }
+
+    private void populate() throws Exception { // Users and open auctions for the run to work on
+        int users = Integer.parseInt(options.getOrDefault("users", "100"));
+        int items = Integer.parseInt(options.getOrDefault("items", "200"));
+        String run = Long.toString(System.currentTimeMillis(), 36); // Fresh emails on every run
+        userIDs = new int[users];
+        for (int i = 0; i < users; i++) {
+            userIDs[i] = server.register("load-" + run + "-" + i + "@load.example");
+        }
+        for (int i = 0; i < items; i++) {
+            AuctionSaleItem item = new AuctionSaleItem();
+            item.name = "Load item " + i;
+            item.description = "Created by the load generator";
+            item.reservePrice = 10;
+            int creator = userIDs[i % users];
+            pool.add(server.newAuction(creator, item), creator);
+        }
+    }
+
+    private void call(Op op, SplittableRandom random, int thread) throws Exception {
+        int user = userIDs[random.nextInt(userIDs.length)];
+        int[] item;
+        switch (op) {
+            case REGISTER:
+                server.register("load-" + thread + "-" + registered.incrementAndGet() + "-" + System.nanoTime() + "@load.example");
+                break;
+            case NEW_AUCTION:
+                AuctionSaleItem sale = new AuctionSaleItem();
+                sale.name = "Load item";
+                sale.description = "Created by the load generator";
+                sale.reservePrice = 10;
+                pool.add(server.newAuction(user, sale), user);
+                break;
+            case BID:
+                item = pool.pick(random);
+                if (item != null)
+                    server.bid(user, item[0], 10 + random.nextInt(1000000));
+                break;
+            case LIST_ITEMS:
+                server.listItems();
+                break;
+            case GET_SPEC:
+                item = pool.pick(random);
+                if (item != null)
+                    server.getSpec(item[0]);
+                break;
+            case CLOSE_AUCTION:
+                item = pool.take(random);
+                if (item != null)
+                    server.closeAuction(item[1], item[0]);
+                break;
+        }
+    }
+
+    // Each thread sends at rate / threads. Latency is measured from when a request was due rather than when it
+    // was sent, so a stall shows up in the percentiles instead of just delaying the requests behind it.
+    private void worker(int thread, Stats stats, CountDownLatch done) {
+        SplittableRandom random = new SplittableRandom(thread);
+        long interval = rate > 0 ? (long) (1e9 * threads / rate) : 0;
+        long due = System.nanoTime();
+        try {
+            while (running) {
+                if (interval > 0) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0)
+                        LockSupport.parkNanos(wait);
+                }
+                long start = interval > 0 ? due : System.nanoTime();
+                Op op = mix[random.nextInt(mix.length)];
+                boolean failed = false;
+                try {
+                    call(op, random, thread);
+                } catch (Exception e) {
+                    failed = true;
+                }
+                long micros = (System.nanoTime() - start) / 1000;
+                if (recording) {
+                    stats.latency[op.ordinal()].record(micros);
+                    if (failed)
+                        stats.errors[op.ordinal()]++;
+                }
+                due += interval;
+            }
+        } finally {
+            done.countDown();
+        }
+    }
+
+    Stats run() throws Exception {
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "5"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "30"));
+        populate();
+
+        Stats[] perThread = new Stats[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            perThread[t] = new Stats();
+            int thread = t;
+            Thread worker = new Thread(() -> worker(thread, perThread[thread], done), "load-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        System.out.println("Warming up for " + warmup + "s with " + threads + " threads"
+                + (rate > 0 ? " at " + rate + " requests/s" : ""));
+        TimeUnit.SECONDS.sleep(warmup);
+        recording = true;
+        System.out.println("Measuring for " + duration + "s");
+        TimeUnit.SECONDS.sleep(duration);
+        recording = false;
+        running = false;
+        done.await();
+
+        Stats total = new Stats();
+        for (Stats stats : perThread) {
+            total.add(stats);
+        }
+        return total;
+    }
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    static void report(Stats stats, long seconds) {
+        System.out.printf("%-13s %9s %7s %9s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "errors", "ops/s",
+                "mean ms", "p50", "p90", "p99", "p99.9", "max");
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        for (Op op : Op.values()) {
+            LatencyHistogram h = stats.latency[op.ordinal()];
+            all.add(h);
+            errors += stats.errors[op.ordinal()];
+            if (h.count() > 0)
+                printRow(label(op), h, stats.errors[op.ordinal()], seconds);
+        }
+        printRow("all", all, errors, seconds);
+    }
+
+    private static void printRow(String name, LatencyHistogram h, long errors, long seconds) {
+        System.out.printf("%-13s %9d %7d %9.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, h.count(), errors,
+                (double) h.count() / seconds, h.mean() / 1000, h.percentile(50) / 1000.0, h.percentile(90) / 1000.0,
+                h.percentile(99) / 1000.0, h.percentile(99.9) / 1000.0, h.max() / 1000.0);
+    }
+
+    static void writeCsv(Stats stats, long seconds, String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.println("operation,count,errors,ops_per_sec,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+            for (Op op : Op.values()) {
+                LatencyHistogram h = stats.latency[op.ordinal()];
+                out.printf("%s,%d,%d,%.1f,%.1f", label(op), h.count(), stats.errors[op.ordinal()], (double) h.count() / seconds, h.mean());
+                for (double p : PERCENTILES) {
+                    out.print("," + h.percentile(p));
+                }
+                out.println("," + h.max());
+            }
+        }
+    }
+
+    static void writeJson(Stats stats, long seconds, Map<String, String> options, String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.println("{");
+            out.print("  \"options\": {");
+            String sep = "";
+            for (Map.Entry<String, String> e : options.entrySet()) {
+                out.print(sep + "\"" + e.getKey() + "\": \"" + e.getValue().replace("\"", "\\\"") + "\"");
+                sep = ", ";
+            }
+            out.println("},");
+            out.println("  \"seconds\": " + seconds + ",");
+            out.println("  \"operations\": {");
+            Op[] ops = Op.values();
+            for (int i = 0; i < ops.length; i++) {
+                LatencyHistogram h = stats.latency[ops[i].ordinal()];
+                out.printf("    \"%s\": {\"count\": %d, \"errors\": %d, \"opsPerSec\": %.1f, \"meanUs\": %.1f, ",
+                        label(ops[i]), h.count(), stats.errors[ops[i].ordinal()], (double) h.count() / seconds, h.mean());
+                out.print("\"percentilesUs\": {");
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    out.print((p > 0 ? ", " : "") + "\"" + PERCENTILES[p] + "\": " + h.percentile(PERCENTILES[p]));
+                }
+                out.print("}, \"maxUs\": " + h.max() + ", \"histogramUs\": [");
+                sep = "";
+                for (int b = 0; b < h.buckets(); b++) { // [highest value in bucket, count] for non-empty buckets
+                    if (h.countIn(b) > 0) {
+                        out.print(sep + "[" + LatencyHistogram.highestIn(b) + ", " + h.countIn(b) + "]");
+                        sep = ", ";
+                    }
+                }
+                out.println("]}" + (i < ops.length - 1 ? "," : ""));
+            }
+            out.println("  }");
+            out.println("}");
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java LoadGenerator [option=value ...]");
+        System.out.println("  threads=16      concurrent callers");
+        System.out.println("  rate=0          requests per second over all threads, 0 for as fast as possible");
+        System.out.println("  mix=bid:50,getSpec:20,listItems:10,newAuction:10,closeAuction:5,register:5");
+        System.out.println("                  percentage of each operation, adding up to 100");
+        System.out.println("  users=100 items=200   users registered and auctions opened before the run");
+        System.out.println("  warmup=5 duration=30  seconds");
+        System.out.println("  csv=<file> json=<file> also write the results there");
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                printUsage();
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        try {
+            Registry registry = LocateRegistry.getRegistry("localhost");
+            Auction server = (Auction) registry.lookup("FrontEnd");
+            LoadGenerator generator = new LoadGenerator(server, options);
+            Stats stats = generator.run();
+            long seconds = Long.parseLong(options.getOrDefault("duration", "30"));
+            report(stats, seconds);
+            if (options.containsKey("csv"))
+                writeCsv(stats, seconds, options.get("csv"));
+            if (options.containsKey("json"))
+                writeJson(stats, seconds, options, options.get("json"));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+        } catch (Exception e) {
+            System.err.println("Load generator exception:");
+            e.printStackTrace();
+        }
+    }
+}
@@ -7,6 +7,15 @@ sleep 0.5
 # Change to server directory
 cd server
 
+# Compile sources so new classes are picked up
+javac *.java
+
+# Clients decode the shared wire types with the same classes and connect through the FrontEnd's socket factory.
+# The load generator buckets latencies with the histogram behind the JMX metrics, so their percentiles compare.
+cp Auction.class AuctionItem.class AuctionSaleItem.class AuctionResult.class AuctionFilter.class AuctionPage.class \
+    AuctionDelta.class BidResult.class Codec.class 'Codec$StringTable.class' TunedSocketFactory*.class \
+    LatencyHistogram.class ../client/
+
 pkill rmiregistry &
 sleep 0.5
 # Start RMI registry in server directory
@@ -0,0 +1,14 @@
+public enum AckPolicy { // How many backups must acknowledge a write before the primary answers the client
+    ALL, MAJORITY, ONE;
+
+    int required(int backups) {
+        switch (this) {
+            case ALL:
+                return backups;
+            case MAJORITY:
+                return (backups + 1) / 2; // Together with the primary this is a majority of the replica group
+            default:
+                return Math.min(1, backups);
+        }
+    }
+}
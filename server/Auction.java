@@ -20,4 +20,22 @@ public interface Auction extends Remote {
     public boolean bid(int userID, int itemID, int price) 
     throws RemoteException; 
       public int getPrimaryReplicaID() throws RemoteException; 
+
+    // Batch variants: one call and, for bids, one replication step for the whole batch.
+    // Results are per element; getSpecBatch returns null for items that don't exist.
+    public BidResult[] bidBatch(int userID, int[] itemIDs, int[] prices)
+    throws RemoteException;
+
+    public AuctionItem[] getSpecBatch(int[] itemIDs)
+    throws RemoteException;
+
+    // Paged listing: start with cursor 0 and pass back each page's cursor until it is -1.
+    // filter may be null; pages hold at most pageSize items, capped by the server.
+    public AuctionPage listItemsPage(AuctionFilter filter, int cursor, int pageSize)
+    throws RemoteException;
+
+    // Incremental listing: auctions created, bid on or closed since version. Start with version 0
+    // and pass back each delta's version; a reset delta replaces everything the caller has.
+    public AuctionDelta listItemsSince(long version)
+    throws RemoteException;
     }
\ No newline at end of file
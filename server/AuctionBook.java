@@ -0,0 +1,244 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AuctionBook {
+    // One record per open auction, indexed by itemID
+    private final ConcurrentHashMap<Integer, AuctionRecord> records = new ConcurrentHashMap<>();
+    // Next itemID to hand out, never reused after an auction is closed
+    private final AtomicInteger nextItemID = new AtomicInteger();
+
+    // Recently closed auctions by the sequence number that closed them, for listItemsSince. Only the last
+    // CLOSED_RETENTION are kept; closedFloor is the newest one dropped, older versions get a full listing.
+    private final ConcurrentSkipListMap<Long, Integer> closedAt = new ConcurrentSkipListMap<>();
+    private volatile long closedFloor = 0;
+    static final int CLOSED_RETENTION = Integer.getInteger("auction.closedRetention", 10000);
+
+    // Bounds on one listItemsPage call: items returned, and itemIDs looked at while filtering
+    static final int MAX_PAGE_SIZE = Integer.getInteger("auction.maxPageSize", 500);
+    static final int PAGE_SCAN_LIMIT = Integer.getInteger("auction.pageScanLimit", 4096);
+
+    public AuctionRecord get(int itemID) {
+        return records.get(itemID);
+    }
+
+    public AuctionRecord create(int creatorID, AuctionSaleItem sale) { // Allocates a fresh itemID and stores the auction
+        AuctionRecord record = allocate(creatorID, sale);
+        records.put(record.item.itemID, record);
+        return record;
+    }
+
+    public AuctionRecord allocate(int creatorID, AuctionSaleItem sale) { // Builds a record with a fresh itemID, stored later with insert
+        AuctionRecord record = new AuctionRecord();
+        record.item = new AuctionItem();
+        record.item.itemID = nextItemID.getAndIncrement();
+        record.item.name = sale.name;
+        record.item.description = sale.description;
+        record.item.highestBid = 0;
+        record.reservePrice = sale.reservePrice;
+        record.creatorID = creatorID;
+        return record;
+    }
+
+    public void insert(AuctionRecord record) { // Stores a replicated auction under the itemID the primary gave it
+        records.putIfAbsent(record.item.itemID, record);
+        nextItemID.accumulateAndGet(record.item.itemID + 1, Math::max);
+    }
+
+    public AuctionRecord remove(int itemID) {
+        return records.remove(itemID);
+    }
+
+    public AuctionItem[] listItems() {
+        AuctionItem[] result = new AuctionItem[records.size()];
+        int n = 0;
+        for (AuctionRecord record : records.values()) {
+            if (n == result.length)
+                break; // Auction added while copying
+            result[n++] = record.item;
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    // Returns up to pageSize matching auctions in itemID order, starting at itemID cursor. At most PAGE_SCAN_LIMIT
+    // itemIDs are looked at, so a selective filter may return a short or empty page with a cursor to continue from.
+    public AuctionPage page(AuctionFilter filter, int cursor, int pageSize) {
+        int end = nextItemID.get();
+        int from = Math.max(0, cursor);
+        int to = (int) Math.max(from, Math.min(end, (long) from + PAGE_SCAN_LIMIT));
+        int limit = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        AuctionItem[] found = new AuctionItem[Math.min(limit, to - from)];
+        int n = 0;
+        int id = from;
+        while (id < to && n < found.length) {
+            AuctionRecord record = records.get(id++);
+            if (record != null && (filter == null || filter.matches(record))) {
+                found[n++] = record.item;
+            }
+        }
+        AuctionPage page = new AuctionPage();
+        page.items = n == found.length ? found : Arrays.copyOf(found, n);
+        page.cursor = id < end ? id : -1;
+        return page;
+    }
+
+    public void touched(int itemID, long seq) { // Stamps an auction with the operation that created or changed it
+        AuctionRecord record = records.get(itemID);
+        if (record != null && record.version < seq) {
+            record.version = seq;
+        }
+    }
+
+    public void closed(int itemID, long seq) {
+        closedAt.put(seq, itemID);
+        while (closedAt.size() > CLOSED_RETENTION) {
+            Long dropped = closedAt.pollFirstEntry().getKey();
+            closedFloor = Math.max(closedFloor, dropped);
+        }
+    }
+
+    // Auctions changed and closed after sequence number since, or everything if since is too old to answer.
+    // The caller reads upTo before calling, so every change up to it is already stamped.
+    public AuctionDelta changesSince(long since, long upTo) {
+        AuctionDelta delta = new AuctionDelta();
+        if (since < closedFloor || since > upTo) {
+            delta.reset = true;
+            delta.changed = listItems();
+            delta.closed = new int[0];
+            return delta;
+        }
+
+        List<AuctionItem> changed = new ArrayList<>();
+        for (AuctionRecord record : records.values()) {
+            if (record.version > since)
+                changed.add(record.item);
+        }
+        Collection<Integer> closed = closedAt.tailMap(since, false).values();
+        delta.changed = changed.toArray(new AuctionItem[0]);
+        delta.closed = closed.stream().mapToInt(Integer::intValue).toArray();
+        return delta;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public int getNextItemID() {
+        return nextItemID.get();
+    }
+
+    public AuctionBook snapshot() { // Point-in-time deep copy used for replication
+        AuctionBook copy = new AuctionBook();
+        for (AuctionRecord record : records.values()) {
+            copy.records.put(record.item.itemID, record.copy());
+        }
+        copy.nextItemID.set(nextItemID.get());
+        copy.closedAt.putAll(closedAt);
+        copy.closedFloor = closedFloor;
+        return copy;
+    }
+
+    // Compact form used inside ReplicaState. Bidder emails go through the same table as the user
+    // registry, so each is sent once. Only called on snapshots, which nothing else modifies.
+    void writeTo(DataOutput out, Codec.StringTable emails) throws IOException {
+        Codec.writeVarInt(out, nextItemID.get());
+        AuctionRecord[] all = records.values().toArray(new AuctionRecord[0]);
+        Codec.writeVarInt(out, all.length);
+        for (AuctionRecord record : all) {
+            record.writeTo(out, emails);
+        }
+        Codec.writeVarLong(out, closedFloor);
+        Codec.writeVarInt(out, closedAt.size());
+        for (Map.Entry<Long, Integer> closed : closedAt.entrySet()) {
+            Codec.writeVarLong(out, closed.getKey());
+            Codec.writeVarInt(out, closed.getValue());
+        }
+    }
+
+    void readFrom(DataInput in, Codec.StringTable emails) throws IOException {
+        nextItemID.set(Codec.readVarInt(in));
+        int n = Codec.readVarInt(in);
+        for (int i = 0; i < n; i++) {
+            AuctionRecord record = AuctionRecord.readFrom(in, emails);
+            records.put(record.item.itemID, record);
+        }
+        closedFloor = Codec.readVarLong(in);
+        int closed = Codec.readVarInt(in);
+        for (int i = 0; i < closed; i++) {
+            long seq = Codec.readVarLong(in);
+            closedAt.put(seq, Codec.readVarInt(in));
+        }
+    }
+
+    // Copies up to max auctions into a state transfer chunk, in itemID order from itemID from.
+    // Each record is copied under its own monitor, so writers are never held up for long.
+    void copyRange(StateChunk chunk, int from, int max) {
+        int end = nextItemID.get();
+        int to = (int) Math.min(end, (long) Math.max(0, from) + (long) max * 4);
+        List<AuctionRecord> copied = new ArrayList<>(Math.min(max, Math.max(0, to - from)));
+        int id = Math.max(0, from);
+        while (id < to && copied.size() < max) {
+            AuctionRecord record = records.get(id++);
+            if (record != null)
+                copied.add(record.copy());
+        }
+        chunk.records = copied.toArray(new AuctionRecord[0]);
+        chunk.nextItemID = end;
+        chunk.next = id < end ? id : -1;
+    }
+
+    void copyClosed(StateChunk chunk) {
+        chunk.closedFloor = closedFloor;
+        Map<Long, Integer> closed = new ConcurrentSkipListMap<>(closedAt);
+        chunk.closedSeqs = new long[closed.size()];
+        chunk.closedItems = new int[closed.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : closed.entrySet()) {
+            chunk.closedSeqs[i] = entry.getKey();
+            chunk.closedItems[i++] = entry.getValue();
+        }
+    }
+
+    void add(StateChunk chunk) { // Adds a transferred chunk to a book being staged
+        if (chunk.records != null) {
+            for (AuctionRecord record : chunk.records) {
+                records.put(record.item.itemID, record);
+            }
+            nextItemID.accumulateAndGet(chunk.nextItemID, Math::max);
+        }
+        if (chunk.closedSeqs != null) {
+            for (int i = 0; i < chunk.closedSeqs.length; i++) {
+                closedAt.put(chunk.closedSeqs[i], chunk.closedItems[i]);
+            }
+            closedFloor = chunk.closedFloor;
+        }
+    }
+
+    void replaceWith(AuctionBook staged) { // Takes over a staged book's records without copying them
+        records.clear();
+        records.putAll(staged.records);
+        nextItemID.set(staged.nextItemID.get());
+        closedAt.clear();
+        closedAt.putAll(staged.closedAt);
+        closedFloor = staged.closedFloor;
+    }
+
+    public void restore(AuctionBook other) { // Replaces this book's contents with a copy of another
+        records.clear();
+        for (AuctionRecord record : other.records.values()) {
+            records.put(record.item.itemID, record.copy());
+        }
+        nextItemID.set(other.nextItemID.get());
+        closedAt.clear();
+        closedAt.putAll(other.closedAt);
+        closedFloor = other.closedFloor;
+    }
+}
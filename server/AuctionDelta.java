@@ -0,0 +1,6 @@
+public class AuctionDelta implements java.io.Serializable { // Result of listItemsSince
+    AuctionItem[] changed;  // Auctions created or bid on since the version asked for
+    int[] closed;           // itemIDs closed since then
+    long version;           // Pass back on the next call
+    boolean reset;          // The version was too old or from another primary: changed holds every open auction
+    }
@@ -0,0 +1,12 @@
+public class AuctionFilter implements java.io.Serializable { // Server-side filter for listItemsPage, null fields match anything
+    Integer minBid;     // Current highest bid at least this
+    Integer maxBid;     // Current highest bid at most this
+    Integer creatorID;
+
+    boolean matches(AuctionRecord record) {
+        int bid = record.item.highestBid;
+        return (minBid == null || bid >= minBid)
+                && (maxBid == null || bid <= maxBid)
+                && (creatorID == null || record.creatorID == creatorID);
+    }
+    }
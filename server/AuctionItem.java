@@ -1,6 +1,29 @@
-public class AuctionItem implements java.io.Serializable {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class AuctionItem implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
     int itemID;
     String name;
     String description;
     int highestBid;
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Codec.writeVarInt(out, itemID);
+        Codec.writeString(out, name);
+        Codec.writeString(out, description);
+        Codec.writeVarInt(out, highestBid);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        itemID = Codec.readVarInt(in);
+        name = Codec.readString(in);
+        description = Codec.readString(in);
+        highestBid = Codec.readVarInt(in);
+    }
 }
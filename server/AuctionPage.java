@@ -0,0 +1,4 @@
+public class AuctionPage implements java.io.Serializable { // One page of listItemsPage
+    AuctionItem[] items;
+    int cursor;     // Pass back to get the next page, -1 once every auction has been scanned
+    }
@@ -0,0 +1,53 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class AuctionRecord implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    AuctionItem item;      // public view of the auction returned to clients
+    int reservePrice;
+    int creatorID;
+    String bidderEmail;    // email of the current highest bidder, null until first bid
+    long version;          // sequence number of the last operation that created or changed it
+    transient boolean closed; // set under the record's monitor when the auction is closed
+
+    synchronized AuctionRecord copy() { // Deep copy so snapshots don't share mutable bid state
+        AuctionRecord r = new AuctionRecord();
+        r.item = new AuctionItem();
+        r.item.itemID = item.itemID;
+        r.item.name = item.name;
+        r.item.description = item.description;
+        r.item.highestBid = item.highestBid;
+        r.reservePrice = reservePrice;
+        r.creatorID = creatorID;
+        r.bidderEmail = bidderEmail;
+        r.version = version;
+        return r;
+    }
+
+    // Compact form used in snapshots and state transfer; bidder emails go through the caller's table
+    void writeTo(DataOutput out, Codec.StringTable emails) throws IOException {
+        Codec.writeVarInt(out, item.itemID);
+        Codec.writeString(out, item.name);
+        Codec.writeString(out, item.description);
+        Codec.writeVarInt(out, item.highestBid);
+        Codec.writeVarInt(out, reservePrice);
+        Codec.writeVarInt(out, creatorID);
+        emails.write(out, bidderEmail);
+        Codec.writeVarLong(out, version);
+    }
+
+    static AuctionRecord readFrom(DataInput in, Codec.StringTable emails) throws IOException {
+        AuctionRecord r = new AuctionRecord();
+        r.item = new AuctionItem();
+        r.item.itemID = Codec.readVarInt(in);
+        r.item.name = Codec.readString(in);
+        r.item.description = Codec.readString(in);
+        r.item.highestBid = Codec.readVarInt(in);
+        r.reservePrice = Codec.readVarInt(in);
+        r.creatorID = Codec.readVarInt(in);
+        r.bidderEmail = emails.read(in);
+        r.version = Codec.readVarLong(in);
+        return r;
+    }
+}
@@ -1,4 +1,23 @@
-public class AuctionResult implements java.io.Serializable {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class AuctionResult implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
     String winningEmail;
     int winningPrice;
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Codec.writeString(out, winningEmail);
+        Codec.writeVarInt(out, winningPrice);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        winningEmail = Codec.readString(in);
+        winningPrice = Codec.readVarInt(in);
+    }
     }
\ No newline at end of file
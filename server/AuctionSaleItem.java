@@ -1,5 +1,26 @@
-public class AuctionSaleItem implements java.io.Serializable {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class AuctionSaleItem implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
     String name;
     String description;
     int reservePrice;
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Codec.writeString(out, name);
+        Codec.writeString(out, description);
+        Codec.writeVarInt(out, reservePrice);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        name = Codec.readString(in);
+        description = Codec.readString(in);
+        reservePrice = Codec.readVarInt(in);
+    }
     }
\ No newline at end of file
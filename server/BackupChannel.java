@@ -0,0 +1,160 @@
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+public class BackupChannel { // Ordered replication stream from the primary to one backup
+    private final Membership membership;
+    private final Membership.Peer peer;
+    private final Supplier<ReplicaState> stateSource;
+    private final String sourceName; // Registry name the backup pulls the state from
+    private final RetainedOps retained;
+    private final LongConsumer newerEpoch; // Told when the backup knows of a newer primary than us
+    private final boolean shipFullState;
+    private final OpStats stats; // Deliveries to this backup, including any catch-up or bootstrap they needed
+    // One sender thread per backup keeps operations in sequence order while backups are sent to in parallel
+    private final ExecutorService sender;
+    private volatile long ackedSeq = -1; // Last sequence number the backup has, -1 until bootstrapped
+    private volatile boolean lagging = false;
+    private int peerGeneration; // Stub generation the backup was bootstrapped through
+    private QuorumAck owed; // Acknowledgement for the batch being delivered, only touched by the sender thread
+
+    BackupChannel(Membership membership, Membership.Peer peer, Supplier<ReplicaState> stateSource, String sourceName,
+            RetainedOps retained, LongConsumer newerEpoch, boolean shipFullState, OpStats stats) {
+        this.membership = membership;
+        this.peer = peer;
+        this.peerGeneration = peer.generation;
+        this.stateSource = stateSource;
+        this.sourceName = sourceName;
+        this.retained = retained;
+        this.newerEpoch = newerEpoch;
+        this.shipFullState = shipFullState;
+        this.stats = stats;
+        this.sender = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "replication-" + peer.name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void send(List<ReplicaOp> ops, QuorumAck ack) { // ack may be null for a lagging backup that is catching up
+        sender.execute(() -> {
+            owed = ack;
+            long start = System.nanoTime();
+            try {
+                deliver(ops);
+                stats.record(start);
+                membership.reportSuccess(peer);
+                if (owed != null)
+                    owed.success();
+            } catch (Exception e) {
+                stats.failed();
+                stats.record(start);
+                ackedSeq = -1; // Bootstrap again once it is reachable
+                NotPrimaryException stale = NotPrimaryException.unwrap(e);
+                if (stale != null) {
+                    newerEpoch.accept(stale.getEpoch()); // Reachable, but follows a newer primary
+                } else {
+                    membership.reportFailure(peer);
+                }
+                if (owed != null)
+                    owed.failure();
+                Log.warn("Failed to sync with replica {}: {}", peer.name, e.getMessage());
+            }
+        });
+    }
+
+    private void deliver(List<ReplicaOp> ops) throws Exception {
+        long lastSeq = ops.get(ops.size() - 1).seq;
+        if (lastSeq <= ackedSeq)
+            return; // Already covered by a full state sent after these operations were queued
+
+        ReplicaInterface backup = peer.stub;
+        if (peer.generation != peerGeneration) {
+            peerGeneration = peer.generation; // Peer restarted behind a new stub
+            ackedSeq = -1;
+        }
+        if (shipFullState) {
+            bootstrap(backup);
+        } else if (ackedSeq < 0 || lagging) {
+            if (!catchUp(backup))
+                bootstrap(backup);
+        } else {
+            long applied = backup.applyOps(ops);
+            if (applied < lastSeq) { // Backup has a gap
+                if (!catchUp(backup))
+                    bootstrap(backup);
+            } else {
+                ackedSeq = applied;
+            }
+        }
+        Log.info("Successfully synced with {}", peer.name);
+    }
+
+    // Sends the backup only the operations it is missing, if they are still retained. They were retained before
+    // being queued, so this covers the batch being delivered too.
+    private boolean catchUp(ReplicaInterface backup) throws Exception {
+        long opEpoch = backup.getLastOpEpoch(); // Read first: if the backup moves on in between, the check fails safe
+        long seq = backup.getLastSeq();
+        List<ReplicaOp> missed = retained.after(seq, opEpoch);
+        if (missed == null)
+            return false;
+        long applied = missed.isEmpty() ? seq : backup.applyOps(missed);
+        if (applied < seq + missed.size())
+            return false;
+        ackedSeq = applied;
+        lagging = false;
+        if (!missed.isEmpty())
+            Log.info("Caught {} up with {} operations from op {}", peer.name, missed.size(), seq + 1);
+        return true;
+    }
+
+    private void bootstrap(ReplicaInterface backup) throws Exception {
+        if (shipFullState) {
+            // The state is taken now, so it covers these operations and anything queued behind them up to its sequence number
+            ReplicaState state = stateSource.get();
+            backup.receiveState(state);
+            ackedSeq = state.getLastSeq();
+            lagging = false;
+            return;
+        }
+
+        // The backup pulls the state in chunks. Writes don't wait for it meanwhile: their operations queue up
+        // behind this task and are sent once the backup reports the sequence number its state covers.
+        markLagging();
+        if (owed != null) {
+            owed.failure();
+            owed = null;
+        }
+        ackedSeq = backup.pullState(sourceName);
+        lagging = false;
+    }
+
+    boolean isFor(Membership.Peer other) {
+        return peer == other;
+    }
+
+    boolean isLagging() {
+        return lagging;
+    }
+
+    boolean hasAcked(long seq) {
+        return ackedSeq >= seq;
+    }
+
+    void markLagging() { // Stops counting towards quorum until it has caught up
+        if (!lagging) {
+            lagging = true;
+            Log.warn("Replica {} is lagging, catching up in the background", peer.name);
+        }
+    }
+
+    void reset() { // Checks where the backup is before the next operation
+        sender.execute(() -> ackedSeq = -1);
+    }
+
+    void close() {
+        sender.shutdown();
+    }
+}
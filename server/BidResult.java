@@ -0,0 +1,5 @@
+public enum BidResult { // Outcome of one bid in a bidBatch call
+    ACCEPTED,
+    TOO_LOW,        // Not above the current highest bid
+    INVALID_ITEM    // No open auction with that ID
+}
@@ -0,0 +1,171 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+public class Checkpointer { // Periodically snapshots a replica's state to disk and drops the log segments it covers
+    // File: magic, payload length, CRC32 of the payload, then the ReplicaState in its compact encoding.
+    // A snapshot named after segment N holds everything in the segments before N.
+    private static final int MAGIC = 0x534E4150;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private final Path dir;
+    private final WriteAheadLog wal;
+    private final Supplier<ReplicaState> state;
+    private final int retain; // Snapshots kept, so an unreadable newest one can fall back to the one before
+    private final long minRecords;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+    private int replayFrom = 1; // First log segment the loaded snapshot doesn't cover
+    private long recordsAtLastCheckpoint = 0;
+    private volatile long lastBytes = 0; // Payload size of the newest checkpoint written
+
+    Checkpointer(Path dir, WriteAheadLog wal, Supplier<ReplicaState> state, int retain, long minRecords) {
+        this.dir = dir;
+        this.wal = wal;
+        this.state = state;
+        this.retain = Math.max(1, retain);
+        this.minRecords = minRecords;
+    }
+
+    private List<Path> snapshots() throws IOException { // Oldest first
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static int segmentOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    ReplicaState loadNewest() throws IOException { // Newest readable snapshot, or null if there is none
+        List<Path> snapshots = snapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Path path = snapshots.get(i);
+            try {
+                ReplicaState loaded = read(path);
+                replayFrom = segmentOf(path);
+                return loaded;
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable snapshot " + path + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    int replayFrom() {
+        return replayFrom;
+    }
+
+    long lastBytes() {
+        return lastBytes;
+    }
+
+    private static ReplicaState read(Path path) throws IOException {
+        byte[] file = Files.readAllBytes(path);
+        ByteBuffer header = ByteBuffer.wrap(file);
+        if (file.length < 12 || header.getInt() != MAGIC)
+            throw new IOException("not a snapshot");
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length != file.length - 12)
+            throw new IOException("truncated");
+        CRC32 crc = new CRC32();
+        crc.update(file, 12, length);
+        if ((int) crc.getValue() != checksum)
+            throw new IOException("checksum mismatch");
+
+        ReplicaState loaded = new ReplicaState();
+        loaded.readFrom(new DataInputStream(new ByteArrayInputStream(file, 12, length)));
+        return loaded;
+    }
+
+    void start(long intervalSeconds) {
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                if (wal.appendedCount() - recordsAtLastCheckpoint >= minRecords)
+                    checkpoint();
+            } catch (IOException e) {
+                System.err.println("Checkpoint failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // The log moves to a new segment before the state is copied, so everything in the older segments is in the
+    // copy. The copy may also hold some later operations; replaying those again on startup is harmless because
+    // operations are idempotent. Writers are only held up while each record is copied.
+    synchronized void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        long records = wal.appendedCount();
+        int segment = wal.startSegment();
+        ReplicaState snapshot = state.get();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        snapshot.writeTo(new DataOutputStream(bytes));
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer header = ByteBuffer.allocate(12).putInt(MAGIC).putInt(payload.length).putInt((int) crc.getValue());
+        header.flip();
+
+        Path target = dir.resolve(String.format("%s%010d%s", PREFIX, segment, SUFFIX));
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer body = ByteBuffer.wrap(payload);
+            while (header.hasRemaining() || body.hasRemaining()) {
+                out.write(new ByteBuffer[] { header, body });
+            }
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        recordsAtLastCheckpoint = records;
+        lastBytes = payload.length;
+
+        // Keep the newest snapshots and the log segments the oldest of them still needs
+        List<Path> snapshots = snapshots();
+        for (int i = 0; i < snapshots.size() - retain; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+        snapshots = snapshots();
+        wal.truncateBefore(segmentOf(snapshots.get(0)));
+        System.out.println("Checkpoint at op " + snapshot.getLastSeq() + ": " + payload.length + " bytes in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    private void syncDirectory() { // Makes the rename durable where the platform allows it
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException e) {
+            // Not supported on every file system
+        }
+    }
+
+    void stop() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public final class Codec { // Compact binary encoding shared by the Externalizable wire types
+    private Codec() {
+    }
+
+    // Unsigned LEB128: 7 bits per byte, high bit set on every byte but the last. Small values take one byte.
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    // Length + 1 as a varint (0 for null), then the UTF-8 bytes
+    public static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int n = readVarInt(in) - 1;
+        if (n < 0)
+            return null;
+        byte[] bytes = new byte[n];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Writes each distinct string once per stream and refers back to it by index afterwards:
+    // 0 is null, 1 is a new string that follows, n >= 2 is the (n - 2)th string already sent.
+    // Writer and reader must see the strings in the same order, so one table covers one stream.
+    static final class StringTable {
+        private final HashMap<String, Integer> written = new HashMap<>();
+        private final List<String> read = new ArrayList<>();
+
+        void write(DataOutput out, String s) throws IOException {
+            if (s == null) {
+                writeVarInt(out, 0);
+                return;
+            }
+            Integer index = written.get(s);
+            if (index != null) {
+                writeVarInt(out, index + 2);
+                return;
+            }
+            written.put(s, written.size());
+            writeVarInt(out, 1);
+            writeString(out, s);
+        }
+
+        String read(DataInput in) throws IOException {
+            int tag = readVarInt(in);
+            if (tag == 0)
+                return null;
+            if (tag == 1) {
+                String s = readString(in);
+                read.add(s);
+                return s;
+            }
+            if (tag - 2 >= read.size())
+                throw new StreamCorruptedException("Unknown string reference " + tag);
+            return read.get(tag - 2);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+public class FailureDetector { // Heartbeats every replica so a failed primary is noticed, and replaced, without a request
+    // Timeout-based: a replica is suspected after `misses` failed pings in a row, or when no ping has been answered
+    // for timeoutMs, which also catches a replica that hangs instead of refusing connections. The primary is pinged
+    // with isAlive() and the standbys with getLastOpEpoch() and getLastSeq(), which double as the ranking for the
+    // next promotion.
+    interface Failover {
+        void primaryFailed(FrontEnd.Primary failed) throws RemoteException;
+    }
+
+    static class Heartbeat {
+        final Membership.Peer peer;
+        final int id;
+        volatile long opEpoch = -1; // Epoch of the standby's last applied operation, as last reported
+        volatile long seq = -1; // Last sequence number the standby reported, -1 until it has answered
+        volatile long lastHeard; // System.nanoTime() of the last answer, or of when the replica was first seen
+        volatile int misses = 0; // Failed pings since the last answer
+        final AtomicBoolean pinging = new AtomicBoolean(); // A ping is outstanding, so a hung replica ties up one thread
+
+        Heartbeat(Membership.Peer peer, int id, long now) {
+            this.peer = peer;
+            this.id = id;
+            this.lastHeard = now;
+        }
+    }
+
+    // Most up-to-date first: the newest history wins, then the longest. A replica holding operations from an
+    // older epoch than another's may have ones the newer primary never replicated, so it ranks lower whatever
+    // its sequence number.
+    static final Comparator<Heartbeat> MOST_UP_TO_DATE = Comparator.comparingLong((Heartbeat h) -> h.opEpoch)
+            .thenComparingLong(h -> h.seq).reversed();
+
+    private final String prefix;
+    private final Supplier<FrontEnd.Primary> primary;
+    private final Failover failover;
+    private final OpStats detectStats; // From the last answer to the primary being suspected
+    private final long timeoutNanos;
+    private final int misses;
+    private final Membership membership;
+    private final ConcurrentHashMap<String, Heartbeat> heartbeats = new ConcurrentHashMap<>();
+    private volatile Heartbeat[] standbys = new Heartbeat[0]; // Healthy non-primary replicas, most up to date first
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "failure-detector");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService pinger = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private FrontEnd.Primary reported; // Primary whose failover failed, so it is logged once; timer thread only
+
+    FailureDetector(Registry registry, String prefix, Supplier<FrontEnd.Primary> primary,
+            Failover failover, OpStats detectStats, long timeoutMs, int misses) {
+        this.prefix = prefix;
+        this.primary = primary;
+        this.failover = failover;
+        this.detectStats = detectStats;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.misses = Math.max(1, misses);
+        this.membership = new Membership(registry, prefix, null);
+    }
+
+    void start(long heartbeatMs, long membershipRefreshMs) {
+        membership.refresh();
+        membership.start(membershipRefreshMs);
+        timer.scheduleWithFixedDelay(this::beat, 0, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    Heartbeat[] standbys() {
+        return standbys;
+    }
+
+    // Asks every registered replica where it is, there and then, and returns those that answered in the order
+    // standbys() would rank them. For choosing the first primary, before any heartbeats have been sent.
+    Heartbeat[] survey() {
+        membership.refresh();
+        List<Heartbeat> answered = new ArrayList<>();
+        for (Membership.Peer peer : membership.peers()) {
+            Heartbeat heartbeat = track(peer, System.nanoTime());
+            try {
+                report(heartbeat);
+                answered.add(heartbeat);
+            } catch (RemoteException e) {
+                membership.reportFailure(peer);
+            }
+        }
+        answered.sort(MOST_UP_TO_DATE);
+        return answered.toArray(new Heartbeat[0]);
+    }
+
+    private Heartbeat track(Membership.Peer peer, long now) {
+        return heartbeats.compute(peer.name, (n, old) -> old != null && old.peer == peer ? old
+                : new Heartbeat(peer, Integer.parseInt(n.substring(prefix.length())), now));
+    }
+
+    private void report(Heartbeat heartbeat) throws RemoteException { // Asks a standby how far its history goes
+        ReplicaInterface stub = heartbeat.peer.stub;
+        long opEpoch = stub.getLastOpEpoch(); // Read first: if the replica moves on in between, it only ranks lower
+        long seq = stub.getLastSeq();
+        heartbeat.opEpoch = opEpoch;
+        heartbeat.seq = seq;
+    }
+
+    private boolean suspected(Heartbeat heartbeat, long now) {
+        return heartbeat.misses >= misses || now - heartbeat.lastHeard > timeoutNanos;
+    }
+
+    private void beat() { // Sends the next round of pings and acts on what the previous ones found
+        long now = System.nanoTime();
+        FrontEnd.Primary current = primary.get();
+        String primaryName = current == null ? null : prefix + current.id;
+        List<Heartbeat> healthy = new ArrayList<>();
+        for (Membership.Peer peer : membership.peers()) {
+            track(peer, now);
+        }
+        heartbeats.keySet().removeIf(name -> !membership.contains(name));
+        // Peers membership has given up on are still pinged, so their misses keep counting
+        for (Heartbeat heartbeat : heartbeats.values()) {
+            boolean isPrimary = heartbeat.peer.name.equals(primaryName);
+            ping(heartbeat, isPrimary);
+            if (!isPrimary && heartbeat.seq >= 0 && !suspected(heartbeat, now))
+                healthy.add(heartbeat);
+        }
+        healthy.sort(MOST_UP_TO_DATE);
+        standbys = healthy.toArray(new Heartbeat[0]);
+
+        if (current == null)
+            return;
+        Heartbeat heartbeat = heartbeats.get(primaryName);
+        boolean failed = heartbeat == null ? !membership.contains(primaryName) // Unbound from the registry
+                : suspected(heartbeat, now);
+        if (!failed)
+            return;
+        if (heartbeat != null && reported != current)
+            detectStats.record(heartbeat.lastHeard);
+        try {
+            failover.primaryFailed(current);
+            reported = null;
+        } catch (RemoteException e) {
+            if (reported != current)
+                Log.warn("Failover from Replica {} failed: {}", current.id, e.getMessage());
+            reported = current; // Retried on the next beat
+        }
+    }
+
+    private void ping(Heartbeat heartbeat, boolean isPrimary) {
+        if (!heartbeat.pinging.compareAndSet(false, true))
+            return; // Still waiting on the last one
+        pinger.execute(() -> {
+            try {
+                if (isPrimary) {
+                    heartbeat.peer.stub.isAlive();
+                } else {
+                    report(heartbeat);
+                }
+                heartbeat.lastHeard = System.nanoTime();
+                heartbeat.misses = 0;
+                membership.reportSuccess(heartbeat.peer);
+            } catch (RemoteException e) {
+                heartbeat.misses++; // Only this ping touches it while pinging is set
+                membership.reportFailure(heartbeat.peer);
+            } finally {
+                heartbeat.pinging.set(false);
+            }
+        });
+    }
+
+    void stop() {
+        timer.shutdownNow();
+        pinger.shutdownNow();
+        membership.stop();
+    }
+}
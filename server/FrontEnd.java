@@ -1,81 +1,320 @@
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.MarshalException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FrontEnd implements Auction {
-    private int primaryReplicaId = -1;
     private static final String REPLICA_PREFIX = "Replica_";
     private final Registry registry;
-    private ReplicaInterface primaryReplica;
-    private Set<Integer> availableReplicas = new HashSet<>();
-
-    private synchronized void handlePrimaryFailure() throws RemoteException {
-        availableReplicas.clear(); // Handles primary replica failure by selecting new primary from available
-                                   // replicas
-        updateAvailableReplicas();
-        availableReplicas.remove(primaryReplicaId);
-        primaryReplica = null;
-
-        // Try each available replica in order iteratively
-        for (Integer replicaId : availableReplicas) {
+
+    // Read offload: "primary" sends every read to the primary, "roundrobin" or "leastloaded" spread
+    // getSpec and listItems over the backups under "bounded" staleness or "readyourwrites" consistency
+    private static final String READ_ROUTING = System.getProperty("frontend.reads", "primary").toLowerCase();
+    private static final String READ_CONSISTENCY = System.getProperty("frontend.readConsistency", "bounded").toLowerCase();
+    private final ReadRouter reads; // null when reads go to the primary
+
+    // Failure detection: every replica is pinged every frontend.heartbeatMs, and the primary is replaced once it
+    // misses frontend.heartbeatMisses pings in a row or hasn't answered for frontend.failureTimeoutMs
+    private final FailureDetector detector;
+
+    // Calls that fail over are retried until frontend.callDeadlineMs, backing off from frontend.retryBaseMs
+    // up to frontend.retryMaxMs between attempts
+    private final RetryPolicy retries = new RetryPolicy(Long.getLong("frontend.callDeadlineMs", 5000),
+            Long.getLong("frontend.retryBaseMs", 5), Long.getLong("frontend.retryMaxMs", 500));
+
+    // Metrics: client calls as the client sees them, including failovers and retries, plus how long a failed
+    // primary took to notice and to replace. Exposed over JMX and printed every frontend.metricsSeconds.
+    private final Metrics metrics = new Metrics("auction:type=FrontEnd");
+    private final OpStats registerStats = metrics.op("requests", "register");
+    private final OpStats getSpecStats = metrics.op("requests", "getSpec");
+    private final OpStats newAuctionStats = metrics.op("requests", "newAuction");
+    private final OpStats listItemsStats = metrics.op("requests", "listItems");
+    private final OpStats closeAuctionStats = metrics.op("requests", "closeAuction");
+    private final OpStats bidStats = metrics.op("requests", "bid");
+    private final OpStats bidBatchStats = metrics.op("requests", "bidBatch");
+    private final OpStats getSpecBatchStats = metrics.op("requests", "getSpecBatch");
+    private final OpStats listItemsPageStats = metrics.op("requests", "listItemsPage");
+    private final OpStats listItemsSinceStats = metrics.op("requests", "listItemsSince");
+    private final OpStats detectStats = metrics.op("failover", "detect"); // From the last sign of life to the failure
+    private final OpStats electStats = metrics.op("failover", "elect"); // Finding and promoting a new primary
+
+    static final class Primary { // Immutable routing entry; the epoch versions it across failovers
+        final int id;
+        final ReplicaInterface stub;
+        final long epoch;
+
+        Primary(int id, ReplicaInterface stub, long epoch) {
+            this.id = id;
+            this.stub = stub;
+            this.epoch = epoch;
+        }
+    }
+
+    // Request threads read the primary without locking; only a failover replaces it
+    private final AtomicReference<Primary> primary = new AtomicReference<>();
+    // The election in progress, if any. One thread runs it and the others wait for its result.
+    private final AtomicReference<CompletableFuture<Primary>> election = new AtomicReference<>();
+
+    private Primary handlePrimaryFailure(Primary failed) throws RemoteException { // Single-flight failover
+        while (true) {
+            Primary current = primary.get();
+            if (current != null && current != failed) {
+                return current; // Another request already replaced the primary
+            }
+            CompletableFuture<Primary> mine = new CompletableFuture<>();
+            CompletableFuture<Primary> running = election.compareAndExchange(null, mine);
+            if (running == null) {
+                try {
+                    current = primary.get();
+                    Primary elected = current != null && current != failed ? current : timedElection(failed);
+                    primary.set(elected);
+                    if (reads != null && elected != current) {
+                        reads.onNewPrimary();
+                    }
+                    mine.complete(elected);
+                    return elected;
+                } catch (RemoteException e) {
+                    mine.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    election.set(null);
+                }
+            }
             try {
-                ReplicaInterface replica = (ReplicaInterface) registry.lookup(REPLICA_PREFIX + replicaId);
-                replica.setPrimary(true);
-                primaryReplicaId = replicaId;
-                primaryReplica = replica;
-                System.out.println("New primary selected: Replica " + replicaId);
-                return;
+                return running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RemoteException ? (RemoteException) e.getCause()
+                        : new RemoteException("Failover failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted waiting for failover");
+            }
+        }
+    }
+
+    private Primary timedElection(Primary failed) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return electPrimary(failed);
+        } catch (RemoteException e) {
+            electStats.failed();
+            throw e;
+        } finally {
+            electStats.record(start);
+        }
+    }
+
+    // Promotes the most up-to-date standby the failure detector has heard from, falling back to the first
+    // reachable replica in the registry, never the failed one
+    private Primary electPrimary(Primary failed) throws RemoteException {
+        long lastEpoch = failed == null ? 0 : failed.epoch;
+        for (FailureDetector.Heartbeat standby : detector.standbys()) {
+            if (failed != null && standby.id == failed.id) {
+                continue;
+            }
+            Primary promoted = promote(standby.id, standby.peer.stub, lastEpoch);
+            if (promoted != null) {
+                return promoted;
+            }
+        }
+        for (int replicaId : availableReplicas()) {
+            if (failed != null && replicaId == failed.id) {
+                continue;
+            }
+            ReplicaInterface replica;
+            try {
+                replica = (ReplicaInterface) registry.lookup(REPLICA_PREFIX + replicaId);
             } catch (Exception e) {
                 continue;
             }
+            Primary promoted = promote(replicaId, replica, lastEpoch);
+            if (promoted != null) {
+                return promoted;
+            }
         }
         throw new RemoteException("No available replicas");
     }
 
-    private synchronized ReplicaInterface getPrimaryReplica() throws RemoteException {// Returns current primary and if
-                                                                                      // there is failures it'll handle
-                                                                                      // if needed.
-        if (primaryReplica == null) {
-            handlePrimaryFailure();
+    // Returns null if the replica can't take over. A promotion that may have happened anyway ends the election:
+    // promoting another replica as well could leave two primaries under the same epoch.
+    private static Primary promote(int replicaId, ReplicaInterface replica, long lastEpoch) throws RemoteException {
+        try {
+            long epoch = replica.promote(lastEpoch);
+            if (epoch <= lastEpoch) {
+                return null; // Never go back to an older generation
+            }
+            Log.info("New primary selected: Replica {} (epoch {})", replicaId, epoch);
+            return new Primary(replicaId, replica, epoch);
+        } catch (RemoteException e) {
+            if (neverArrived(e)) {
+                return null;
+            }
+            throw new RemoteException("Promoting Replica " + replicaId + " may or may not have succeeded", e);
+        }
+    }
+
+    private Primary getPrimaryReplica() throws RemoteException { // Returns current primary, failures are detected
+                                                                 // from the forwarded call itself
+        Primary current = primary.get();
+        return current != null ? current : handlePrimaryFailure(null);
+    }
+
+    // Whether a failed call should fail over and be retried. A replica that isn't primary changed nothing, and
+    // neither did one the call never reached. Any other transport failure may have come after the replica ran
+    // the call, e.g. a read timeout on a slow reply, so only idempotent calls are retried on those.
+    private static boolean isPrimaryFailure(RemoteException e, boolean idempotent) {
+        return NotPrimaryException.unwrap(e) != null || (idempotent ? isTransportFailure(e) : neverArrived(e));
+    }
+
+    private static boolean neverArrived(RemoteException e) { // Failed before the replica could run the call
+        return e instanceof ConnectException
+                || e instanceof ConnectIOException
+                || e instanceof NoSuchObjectException;
+    }
+
+    static boolean isTransportFailure(RemoteException e) {
+        return e instanceof ConnectException
+                || e instanceof ConnectIOException
+                || e instanceof NoSuchObjectException
+                || e instanceof MarshalException
+                || e instanceof UnmarshalException;
+    }
+
+    private interface ReplicaCall<T> {
+        T call(ReplicaInterface replica) throws RemoteException;
+    }
+
+    private interface BackupRead<T> {
+        T call(ReplicaInterface replica, long minSeq) throws RemoteException;
+    }
+
+    // Runs the call on the primary. A failure isPrimaryFailure accepts fails over and retries with backoff until
+    // the call's deadline. A write that may have run is not retried, since a second newAuction or register would
+    // apply it twice: its transport error goes back to the client, as does any error that is the call's answer.
+    private <T> T forward(ReplicaCall<T> call, boolean idempotent) throws RemoteException {
+        long deadline = retries.deadline();
+        RemoteException failure = null;
+        int attempt = 0;
+        while (retries.pause(attempt++, deadline)) {
+            Primary primary;
+            try {
+                primary = getPrimaryReplica();
+            } catch (RemoteException e) {
+                failure = e; // No replica could be promoted yet
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                return call.call(primary.stub);
+            } catch (RemoteException e) {
+                if (!isPrimaryFailure(e, idempotent)) {
+                    if (isTransportFailure(e)) {
+                        throw new RemoteException("Replica " + primary.id
+                                + " failed during the write, which may or may not have taken effect", e);
+                    }
+                    throw e;
+                }
+                failure = e;
+                detectStats.record(start);
+            }
+            try {
+                handlePrimaryFailure(primary);
+            } catch (RemoteException e) {
+                failure = e;
+            }
         }
+        throw new RemoteException("No primary answered within " + retries.deadlineMs() + "ms, " + (attempt - 1)
+                + " attempt(s)", failure);
+    }
+
+    private <T> T write(OpStats stats, ReplicaCall<Sequenced<T>> call) throws RemoteException {
+        long start = System.nanoTime();
         try {
-            primaryReplica.isPrimary();
-            return primaryReplica;
-        } catch (Exception e) {
-            handlePrimaryFailure();
-            return primaryReplica;
+            Sequenced<T> result = forward(call, false);
+            if (reads != null) {
+                reads.onWrite(result.seq, result.epoch);
+            }
+            return result.value;
+        } catch (RemoteException e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.record(start);
+        }
+    }
+
+    private <T> T read(OpStats stats, BackupRead<T> backupRead, ReplicaCall<T> primaryRead) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return route(backupRead, primaryRead);
+        } catch (RemoteException e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.record(start);
+        }
+    }
+
+    private <T> T route(BackupRead<T> backupRead, ReplicaCall<T> primaryRead) throws RemoteException {
+        if (reads != null) {
+            long minSeq = reads.minSeq();
+            ReadRouter.Target target = reads.acquire(minSeq);
+            if (target != null) {
+                try {
+                    return backupRead.call(target.peer.stub, minSeq);
+                } catch (RemoteException e) {
+                    if (!reads.failed(target, e)) {
+                        throw e; // The backup was fresh enough, so its error is the answer
+                    }
+                } finally {
+                    reads.release(target);
+                }
+            }
         }
+        return forward(primaryRead, true);
     }
 
-    private void updateAvailableReplicas() { // Updates sets of available replicas from registry
+    private List<Integer> availableReplicas() { // Available replica IDs from registry
+        List<Integer> replicaIds = new ArrayList<>();
         try {
             String[] boundNames = registry.list();
             for (String name : boundNames) {
                 if (name.startsWith(REPLICA_PREFIX)) {
-                    int replicaId = Integer.parseInt(name.substring(REPLICA_PREFIX.length()));
-                    availableReplicas.add(replicaId);
+                    replicaIds.add(Integer.parseInt(name.substring(REPLICA_PREFIX.length())));
                 }
             }
         } catch (Exception e) {
             System.err.println("Error updating replicas: " + e.getMessage());
         }
+        return replicaIds;
     }
 
-    private void selectInitialPrimary() throws RemoteException {// Selects a primary replica on startup
+    // Selects a primary replica on startup. Replicas restarted from their logs may have recovered different
+    // amounts of history, so the most up-to-date one is promoted, ranked as for a failover; otherwise an older
+    // state could become primary and be pushed over the others.
+    private void selectInitialPrimary() throws RemoteException {
         try {
-            String[] boundNames = registry.list();
-            for (String name : boundNames) {
-                if (name.startsWith(REPLICA_PREFIX)) {
-                    int replicaId = Integer.parseInt(name.substring(REPLICA_PREFIX.length()));
-                    ReplicaInterface replica = (ReplicaInterface) registry.lookup(name);
-                    replica.setPrimary(true);
-                    primaryReplicaId = replicaId;
-                    primaryReplica = replica;
-                    System.out.println("Selected replica " + replicaId + " as primary");
+            for (FailureDetector.Heartbeat candidate : detector.survey()) {
+                try {
+                    long epoch = candidate.peer.stub.promote(0);
+                    primary.set(new Primary(candidate.id, candidate.peer.stub, epoch));
+                    System.out.println("Selected replica " + candidate.id + " as primary (epoch " + epoch
+                            + ", up to op " + candidate.seq + ")");
                     return;
+                } catch (RemoteException e) {
+                    if (!neverArrived(e)) {
+                        throw e; // It may have taken over, so promoting another could make two primaries
+                    }
                 }
             }
             throw new RemoteException("No replicas available");
@@ -86,86 +325,92 @@ public class FrontEnd implements Auction {
 
     public FrontEnd() throws RemoteException {
         this.registry = LocateRegistry.getRegistry();
-        updateAvailableReplicas();
+        this.detector = new FailureDetector(registry, REPLICA_PREFIX, primary::get, this::handlePrimaryFailure,
+                detectStats, Long.getLong("frontend.failureTimeoutMs", 1000),
+                Integer.getInteger("frontend.heartbeatMisses", 2));
         selectInitialPrimary();
+        if (READ_ROUTING.equals("primary")) {
+            this.reads = null;
+        } else {
+            this.reads = new ReadRouter(registry, REPLICA_PREFIX, primary::get,
+                    READ_ROUTING.equals("leastloaded") ? ReadRouter.Routing.LEAST_LOADED : ReadRouter.Routing.ROUND_ROBIN,
+                    READ_CONSISTENCY.equals("readyourwrites") ? ReadRouter.Consistency.READ_YOUR_WRITES : ReadRouter.Consistency.BOUNDED,
+                    Long.getLong("frontend.maxLagOps", 100));
+            reads.start(Long.getLong("frontend.readSampleMs", 100), Long.getLong("frontend.membershipRefreshMs", 2000));
+            reads.reportEvery(Long.getLong("frontend.readStatsSeconds", 60), "FrontEnd");
+        }
+        metrics.reportEvery(Long.getLong("frontend.metricsSeconds", 60), "FrontEnd");
+        detector.start(Long.getLong("frontend.heartbeatMs", 100), Long.getLong("frontend.membershipRefreshMs", 2000));
     }
 
     // Functionality methods
     @Override
     public int register(String email) throws RemoteException {
-        while (true) {
-            try {
-                return getPrimaryReplica().register(email);
-            } catch (RemoteException e) {
-                continue;
-            }
-        }
+        return write(registerStats, replica -> replica.registerSequenced(email));
     }
 
     @Override
     public AuctionItem getSpec(int itemID) throws RemoteException {
-        while (true) {
-            try {
-                return getPrimaryReplica().getSpec(itemID);
-            } catch (RemoteException e) {
-                continue;
-            }
-        }
+        return read(getSpecStats, (replica, minSeq) -> replica.getSpec(itemID, minSeq),
+                replica -> replica.getSpec(itemID));
     }
 
     @Override
     public int newAuction(int userID, AuctionSaleItem item) throws RemoteException {
-        while (true) {
-            try {
-                return getPrimaryReplica().newAuction(userID, item);
-            } catch (RemoteException e) {
-                continue;
-            }
-        }
+        return write(newAuctionStats, replica -> replica.newAuctionSequenced(userID, item));
     }
 
     @Override
     public AuctionItem[] listItems() throws RemoteException {
-        while (true) {
-            try {
-                return getPrimaryReplica().listItems();
-            } catch (RemoteException e) {
-                continue;
-            }
-        }
+        return read(listItemsStats, (replica, minSeq) -> replica.listItems(minSeq), replica -> replica.listItems());
     }
 
     @Override
     public AuctionResult closeAuction(int userID, int itemID) throws RemoteException {
-        while (true) {
-            try {
-                return getPrimaryReplica().closeAuction(userID, itemID);
-            } catch (RemoteException e) {
-                continue;
-            }
-        }
+        return write(closeAuctionStats, replica -> replica.closeAuctionSequenced(userID, itemID));
     }
 
     @Override
     public boolean bid(int userID, int itemID, int price) throws RemoteException {
-        while (true) {
-            try {
-                return getPrimaryReplica().bid(userID, itemID, price);
-            } catch (RemoteException e) {
-                continue;
-            }
-        }
+        return write(bidStats, replica -> replica.bidSequenced(userID, itemID, price));
+    }
+
+    @Override
+    public BidResult[] bidBatch(int userID, int[] itemIDs, int[] prices) throws RemoteException {
+        return write(bidBatchStats, replica -> replica.bidBatchSequenced(userID, itemIDs, prices));
+    }
+
+    @Override
+    public AuctionItem[] getSpecBatch(int[] itemIDs) throws RemoteException {
+        return read(getSpecBatchStats, (replica, minSeq) -> replica.getSpecBatch(itemIDs, minSeq),
+                replica -> replica.getSpecBatch(itemIDs));
+    }
+
+    @Override
+    public AuctionPage listItemsPage(AuctionFilter filter, int cursor, int pageSize) throws RemoteException {
+        return read(listItemsPageStats, (replica, minSeq) -> replica.listItemsPage(filter, cursor, pageSize, minSeq),
+                replica -> replica.listItemsPage(filter, cursor, pageSize));
+    }
+
+    @Override
+    public AuctionDelta listItemsSince(long version) throws RemoteException {
+        return read(listItemsSinceStats, (replica, minSeq) -> replica.listItemsSince(version, minSeq),
+                replica -> replica.listItemsSince(version));
     }
 
     @Override
     public int getPrimaryReplicaID() throws RemoteException {
-        return primaryReplicaId;
+        Primary current = primary.get();
+        return current == null ? -1 : current.id;
     }
 
     public static void main(String[] args) {
         try {
             FrontEnd frontEnd = new FrontEnd();
-            Auction stub = (Auction) UnicastRemoteObject.exportObject(frontEnd, 0);
+            // A client call can take the whole retry deadline plus the attempt in flight when it expires
+            TunedSocketFactory sockets = TunedSocketFactory.fromProperties()
+                    .withReadTimeoutExtendedBy(frontEnd.retries.deadlineMs());
+            Auction stub = (Auction) UnicastRemoteObject.exportObject(frontEnd, 0, sockets, sockets);
             Registry registry = LocateRegistry.getRegistry();
             registry.bind("FrontEnd", stub);
             System.out.println("FrontEnd ready");
@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class GroupCommit { // Collects replicated writes arriving close together and sends them to the backups as one batch
+    // A write is sent at once if no batch is waiting on the backups. Otherwise it joins the open batch, which
+    // goes out when the one ahead of it is decided, when it is full, or windowMicros after it opened.
+    static class Batch {
+        final List<ReplicaOp> ops = new ArrayList<>();
+        final QuorumAck ack = new QuorumAck();
+        volatile List<BackupChannel> targets = List.of();
+        volatile long lastSeq; // Highest sequence number in the batch
+    }
+
+    private static final String[] SIZE_BUCKETS = { "1", "2-3", "4-7", "8-15", "16-31", "32-63", "64-127", "128+" };
+
+    private final long windowMicros; // Longest a batch waits behind the one ahead; 0 sends every write on its own
+    private final int maxBatch;
+    private final AckPolicy policy;
+    private final Supplier<List<BackupChannel>> targets;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "group-commit");
+        t.setDaemon(true);
+        return t;
+    });
+    private Batch open; // Batch still accepting writes
+    private Batch outstanding; // Last batch sent, until its quorum is decided
+
+    // Batch size metrics, guarded by this
+    private long batches = 0;
+    private long batchedOps = 0;
+    private int largestBatch = 0;
+    private final long[] sizeHistogram = new long[SIZE_BUCKETS.length];
+
+    GroupCommit(long windowMicros, int maxBatch, AckPolicy policy, Supplier<List<BackupChannel>> targets) {
+        this.windowMicros = windowMicros;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.policy = policy;
+        this.targets = targets;
+    }
+
+    // Adds sequenced writes to the open batch. Callers add in sequence order, so batches leave in order too.
+    // The writes of one call always go out in the same batch.
+    synchronized Batch add(List<ReplicaOp> ops) {
+        if (open == null) {
+            open = new Batch();
+            if (windowMicros > 0 && outstanding != null) {
+                Batch batch = open;
+                timer.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        Batch batch = open;
+        batch.ops.addAll(ops);
+        batch.lastSeq = ops.get(ops.size() - 1).seq;
+        if (windowMicros <= 0 || outstanding == null || batch.ops.size() >= maxBatch) {
+            flush(batch);
+        }
+        return batch;
+    }
+
+    private synchronized void flush(Batch batch) {
+        if (batch != open)
+            return; // Already sent because it filled up
+
+        open = null;
+        List<BackupChannel> channels = targets.get();
+        int healthy = 0;
+        for (BackupChannel channel : channels) {
+            if (!channel.isLagging())
+                healthy++;
+        }
+        batch.targets = channels;
+        outstanding = batch;
+        List<ReplicaOp> ops = List.copyOf(batch.ops);
+        for (BackupChannel channel : channels) {
+            channel.send(ops, channel.isLagging() ? null : batch.ack);
+        }
+        batch.ack.arm(policy.required(healthy), healthy, () -> decided(batch));
+
+        batches++;
+        batchedOps += ops.size();
+        largestBatch = Math.max(largestBatch, ops.size());
+        sizeHistogram[Math.min(SIZE_BUCKETS.length - 1, 31 - Integer.numberOfLeadingZeros(ops.size()))]++;
+    }
+
+    private synchronized void decided(Batch batch) { // The writers of batch can return, so the next one goes out
+        if (batch != outstanding)
+            return; // A later batch was sent before this one was decided
+        outstanding = null;
+        if (open != null)
+            flush(open);
+    }
+
+    synchronized long batches() {
+        return batches;
+    }
+
+    synchronized String stats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("batches=").append(batches)
+                .append(" ops=").append(batchedOps)
+                .append(" avg=").append(batches == 0 ? "0" : String.format("%.2f", (double) batchedOps / batches))
+                .append(" max=").append(largestBatch)
+                .append(" sizes={");
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(SIZE_BUCKETS[i]).append(':').append(sizeHistogram[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    void reportEvery(long seconds, String label) { // Prints the batch metrics periodically while writes are flowing
+        long[] last = { 0 };
+        timer.scheduleAtFixedRate(() -> {
+            long now = batches();
+            if (now != last[0]) {
+                last[0] = now;
+                System.out.println(label + " group commit: " + stats());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+}
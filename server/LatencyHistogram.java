@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class LatencyHistogram { // Log-linear latency histogram shared by the JMX metrics and the load generator
+    // Microseconds: exact below 64, then 32 buckets per power of two, so within about 3%.
+    // Recording only updates atomics, so it never allocates or blocks.
+    private static final int SUB_BITS = 6;
+    private static final int LINEAR = 1 << SUB_BITS;
+    private static final int HALF = LINEAR / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (64 - SUB_BITS) * HALF);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long micros) {
+        micros = Math.max(0, micros);
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+        count.addAndGet(other.count.get());
+        totalMicros.addAndGet(other.totalMicros.get());
+        long max = maxMicros.get();
+        long otherMax = other.maxMicros.get();
+        while (otherMax > max && !maxMicros.compareAndSet(max, otherMax)) {
+            max = maxMicros.get();
+        }
+    }
+
+    private static int index(long v) {
+        if (v < LINEAR)
+            return (int) v;
+        int shift = 64 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return LINEAR + (shift - 1) * HALF + (int) (v >>> shift) - HALF;
+    }
+
+    public static long highestIn(int bucket) { // Largest value that lands in the bucket
+        if (bucket < LINEAR)
+            return bucket;
+        int shift = (bucket - LINEAR) / HALF + 1;
+        long sub = (bucket - LINEAR) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long percentile(double p) { // Approximate under concurrent recording, which is fine for monitoring
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestIn(i), maxMicros.get());
+        }
+        return maxMicros.get();
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) totalMicros.get() / n;
+    }
+
+    public long max() {
+        return maxMicros.get();
+    }
+
+    public int buckets() {
+        return counts.length();
+    }
+
+    public long countIn(int bucket) {
+        return counts.get(bucket);
+    }
+}
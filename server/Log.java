@@ -0,0 +1,235 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public final class Log { // Asynchronous event log: callers queue an event and a background thread prints it
+    // Events go into a fixed ring of reusable slots and "{}" placeholders are only filled in by the printing
+    // thread, so logging costs a few field writes and never waits for the console. When the ring is full the
+    // event is dropped and counted. Levels below log.level (default INFO) are skipped before anything is queued.
+    // Numeric arguments have their own long overloads, kept in the slot unboxed, so per-operation events such as
+    // a bid's itemID and price don't allocate.
+    enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final class Slot {
+        volatile long seq; // Free for the producer of sequence seq; holds event seq - 1 once published
+        Level level;
+        String format;
+        Object a, b, c, d;
+        boolean numeric; // Arguments are in x, y, z instead of a, b, c, d
+        long x, y, z;
+    }
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("log.level", "info").toUpperCase());
+    private static final Slot[] RING = new Slot[Integer.highestOneBit(Math.max(2, Integer.getInteger("log.buffer", 8192)))];
+    private static final int MASK = RING.length - 1;
+    private static final AtomicLong claimed = new AtomicLong(); // Next sequence a producer takes
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile long printed = 0; // Next sequence the printer reads; only it writes this
+
+    static {
+        for (int i = 0; i < RING.length; i++) {
+            RING[i] = new Slot();
+            RING[i].seq = i;
+        }
+        Thread printer = new Thread(Log::drain, "log");
+        printer.setDaemon(true);
+        printer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    static boolean enabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    static void debug(String message) {
+        log(Level.DEBUG, message, null, null, null, null);
+    }
+
+    static void debug(String format, Object a) {
+        log(Level.DEBUG, format, a, null, null, null);
+    }
+
+    static void debug(String format, Object a, Object b) {
+        log(Level.DEBUG, format, a, b, null, null);
+    }
+
+    static void debug(String format, Object a, Object b, Object c) {
+        log(Level.DEBUG, format, a, b, c, null);
+    }
+
+    static void debug(String format, long x) {
+        log(Level.DEBUG, format, x, 0, 0);
+    }
+
+    static void debug(String format, long x, long y) {
+        log(Level.DEBUG, format, x, y, 0);
+    }
+
+    static void debug(String format, long x, long y, long z) {
+        log(Level.DEBUG, format, x, y, z);
+    }
+
+    static void info(String message) {
+        log(Level.INFO, message, null, null, null, null);
+    }
+
+    static void info(String format, Object a) {
+        log(Level.INFO, format, a, null, null, null);
+    }
+
+    static void info(String format, Object a, Object b) {
+        log(Level.INFO, format, a, b, null, null);
+    }
+
+    static void info(String format, Object a, Object b, Object c) {
+        log(Level.INFO, format, a, b, c, null);
+    }
+
+    static void info(String format, Object a, Object b, Object c, Object d) {
+        log(Level.INFO, format, a, b, c, d);
+    }
+
+    static void info(String format, long x) {
+        log(Level.INFO, format, x, 0, 0);
+    }
+
+    static void info(String format, long x, long y) {
+        log(Level.INFO, format, x, y, 0);
+    }
+
+    static void info(String format, long x, long y, long z) {
+        log(Level.INFO, format, x, y, z);
+    }
+
+    static void warn(String message) {
+        log(Level.WARN, message, null, null, null, null);
+    }
+
+    static void warn(String format, Object a) {
+        log(Level.WARN, format, a, null, null, null);
+    }
+
+    static void warn(String format, Object a, Object b) {
+        log(Level.WARN, format, a, b, null, null);
+    }
+
+    static void warn(String format, Object a, Object b, Object c) {
+        log(Level.WARN, format, a, b, c, null);
+    }
+
+    static void error(String message) {
+        log(Level.ERROR, message, null, null, null, null);
+    }
+
+    static void error(String format, Object a) {
+        log(Level.ERROR, format, a, null, null, null);
+    }
+
+    static void error(String format, Object a, Object b) {
+        log(Level.ERROR, format, a, b, null, null);
+    }
+
+    static void error(String format, Object a, Object b, Object c) {
+        log(Level.ERROR, format, a, b, c, null);
+    }
+
+    private static void log(Level level, String format, Object a, Object b, Object c, Object d) {
+        if (!enabled(level))
+            return;
+        Slot slot = claim();
+        if (slot == null)
+            return;
+        slot.level = level;
+        slot.format = format;
+        slot.numeric = false;
+        slot.a = a;
+        slot.b = b;
+        slot.c = c;
+        slot.d = d;
+        slot.seq = slot.seq + 1; // Publishes the fields above
+    }
+
+    private static void log(Level level, String format, long x, long y, long z) {
+        if (!enabled(level))
+            return;
+        Slot slot = claim();
+        if (slot == null)
+            return;
+        slot.level = level;
+        slot.format = format;
+        slot.numeric = true;
+        slot.x = x;
+        slot.y = y;
+        slot.z = z;
+        slot.seq = slot.seq + 1; // Publishes the fields above
+    }
+
+    private static Slot claim() { // The next slot, owned by the caller until it publishes; null if the ring is full
+        while (true) {
+            long seq = claimed.get();
+            Slot slot = RING[(int) seq & MASK];
+            long free = slot.seq;
+            if (free < seq) {
+                dropped.incrementAndGet(); // Still holds an event from a lap ago that hasn't been printed
+                return null;
+            }
+            if (free == seq && claimed.compareAndSet(seq, seq + 1))
+                return slot;
+        }
+    }
+
+    private static void drain() { // Runs on the printer thread
+        StringBuilder line = new StringBuilder(256);
+        long reported = 0;
+        while (true) {
+            long seq = printed;
+            Slot slot = RING[(int) seq & MASK];
+            if (slot.seq != seq + 1) {
+                long lost = dropped.get();
+                if (lost != reported) {
+                    System.err.println("Log buffer full, dropped " + (lost - reported) + " event(s)");
+                    reported = lost;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1)); // Nothing queued
+                continue;
+            }
+            line.setLength(0);
+            format(line, slot);
+            (slot.level.compareTo(Level.WARN) >= 0 ? System.err : System.out).println(line);
+            slot.format = null;
+            slot.a = slot.b = slot.c = slot.d = null;
+            slot.seq = seq + RING.length; // Free for the producer one lap on
+            printed = seq + 1;
+        }
+    }
+
+    private static void format(StringBuilder line, Slot slot) {
+        String format = slot.format;
+        int args = slot.numeric ? 3 : 4;
+        int arg = 0;
+        int from = 0;
+        int at;
+        while (arg < args && (at = format.indexOf("{}", from)) >= 0) {
+            line.append(format, from, at);
+            if (slot.numeric) {
+                line.append(arg == 0 ? slot.x : arg == 1 ? slot.y : slot.z);
+            } else {
+                line.append(arg == 0 ? slot.a : arg == 1 ? slot.b : arg == 2 ? slot.c : slot.d);
+            }
+            from = at + 2;
+            arg++;
+        }
+        line.append(format, from, format.length());
+    }
+
+    static void flush() { // Waits briefly for everything queued so far to be printed, e.g. before exiting
+        long target = claimed.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (printed < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+}
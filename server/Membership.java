@@ -0,0 +1,112 @@
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Membership { // Cached view of the other replicas bound in the registry, with resolved stubs
+    enum State { ALIVE, SUSPECT, DEAD }
+
+    static class Peer {
+        final String name;
+        volatile ReplicaInterface stub;
+        volatile State state = State.ALIVE;
+        volatile int generation = 0; // Bumped whenever the stub is re-resolved, e.g. after the peer restarts
+
+        Peer(String name, ReplicaInterface stub) {
+            this.name = name;
+            this.stub = stub;
+        }
+    }
+
+    private final Registry registry;
+    private final String prefix;
+    private final String selfName;
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "membership-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+
+    Membership(Registry registry, String prefix, String selfName) {
+        this.registry = registry;
+        this.prefix = prefix;
+        this.selfName = selfName;
+    }
+
+    void start(long refreshMs) {
+        timer.scheduleWithFixedDelay(this::refresh, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    List<Peer> peers() { // Every known peer that isn't dead
+        List<Peer> result = new ArrayList<>(peers.size());
+        for (Peer peer : peers.values()) {
+            if (peer.state != State.DEAD)
+                result.add(peer);
+        }
+        return result;
+    }
+
+    boolean contains(String name) {
+        return peers.containsKey(name);
+    }
+
+    void reportSuccess(Peer peer) {
+        peer.state = State.ALIVE;
+    }
+
+    void reportFailure(Peer peer) { // First failure makes a peer suspect, a second one dead until the next refresh
+        peer.state = peer.state == State.ALIVE ? State.SUSPECT : State.DEAD;
+        if (refreshQueued.compareAndSet(false, true)) {
+            timer.execute(() -> {
+                refreshQueued.set(false);
+                refresh();
+            });
+        }
+    }
+
+    synchronized void refresh() { // Reconciles the cache with the registry and re-resolves unhealthy peers
+        try {
+            Set<String> bound = new HashSet<>();
+            for (String name : registry.list()) {
+                if (!name.startsWith(prefix) || name.equals(selfName))
+                    continue;
+                bound.add(name);
+                Peer peer = peers.get(name);
+                if (peer == null) {
+                    peers.put(name, new Peer(name, (ReplicaInterface) registry.lookup(name)));
+                } else if (peer.state != State.ALIVE) {
+                    probe(peer);
+                }
+            }
+            peers.keySet().retainAll(bound);
+        } catch (Exception e) {
+            System.err.println("Error refreshing replicas: " + e.getMessage());
+        }
+    }
+
+    private void probe(Peer peer) {
+        try {
+            ReplicaInterface stub = (ReplicaInterface) registry.lookup(peer.name);
+            stub.isAlive();
+            if (stub != peer.stub && !stub.equals(peer.stub)) {
+                peer.stub = stub;
+                peer.generation++;
+            }
+            peer.state = State.ALIVE;
+        } catch (Exception e) {
+            peer.state = State.DEAD;
+        }
+    }
+
+    void stop() {
+        timer.shutdownNow();
+    }
+}
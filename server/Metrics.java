@@ -0,0 +1,70 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+public class Metrics { // One process's OpStats and gauges, registered as MBeans and printed periodically
+    private final String domain; // ObjectName prefix, e.g. "auction:type=Replica,id=1"
+    private final Map<String, OpStats> ops = new ConcurrentSkipListMap<>(); // "group/name" in print order
+    private final Map<String, Long> printed = new ConcurrentHashMap<>(); // Count at the last dump
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "metrics");
+        t.setDaemon(true);
+        return t;
+    });
+
+    Metrics(String domain) {
+        this.domain = domain;
+    }
+
+    // Looked up once by callers and kept, so the request path only touches the OpStats itself
+    OpStats op(String group, String name) {
+        return ops.computeIfAbsent(group + "/" + name, key -> {
+            OpStats stats = new OpStats();
+            register(",group=" + group + ",name=" + name, stats);
+            return stats;
+        });
+    }
+
+    <T> void gauges(Class<T> type, T gauges) { // Read-only attributes computed when JMX asks for them
+        try {
+            register(",name=" + type.getSimpleName().replace("MBean", ""), new StandardMBean(gauges, type));
+        } catch (JMException e) {
+            System.err.println("Failed to expose " + type.getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private void register(String keys, Object mbean) {
+        try {
+            ObjectName name = new ObjectName(domain + keys);
+            try {
+                server.registerMBean(mbean, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name); // Left by an earlier instance in the same JVM
+                server.registerMBean(mbean, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register MBean " + domain + keys + ": " + e.getMessage());
+        }
+    }
+
+    void reportEvery(long seconds, String label) { // Prints every OpStats that was used since the last dump
+        timer.scheduleAtFixedRate(() -> {
+            for (Map.Entry<String, OpStats> e : ops.entrySet()) {
+                long count = e.getValue().getCount();
+                Long last = printed.put(e.getKey(), count);
+                if (count != (last == null ? 0 : last))
+                    System.out.println(label + " " + e.getKey() + ": " + e.getValue().summary());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+}
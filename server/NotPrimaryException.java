@@ -0,0 +1,23 @@
+import java.rmi.RemoteException;
+
+public class NotPrimaryException extends RemoteException { // Thrown by a replica that isn't (or is no longer) the primary
+    private static final long serialVersionUID = 1L;
+    private final long epoch; // Highest primary epoch the replica knows of
+
+    public NotPrimaryException(String message, long epoch) {
+        super(message);
+        this.epoch = epoch;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    static NotPrimaryException unwrap(Throwable e) { // RMI delivers it wrapped in a ServerException
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof NotPrimaryException)
+                return (NotPrimaryException) t;
+        }
+        return null;
+    }
+}
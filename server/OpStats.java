@@ -0,0 +1,64 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OpStats implements OpStatsMBean { // Call counter and latency histogram for one kind of call
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    void record(long startNanos) { // One call that started at startNanos, from System.nanoTime()
+        recordMicros((System.nanoTime() - startNanos) / 1000);
+    }
+
+    void recordMicros(long micros) {
+        latency.record(micros);
+    }
+
+    void failed() { // Counted on top of record, which every call goes through
+        errors.incrementAndGet();
+    }
+
+    @Override
+    public long getCount() {
+        return latency.count();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latency.mean();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latency.percentile(50);
+    }
+
+    @Override
+    public long getP90Micros() {
+        return latency.percentile(90);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latency.percentile(99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latency.percentile(99.9);
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latency.max();
+    }
+
+    String summary() {
+        return String.format("count=%d errors=%d mean=%.0fus p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                getCount(), getErrors(), getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(),
+                getP999Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,10 @@
+public interface OpStatsMBean { // Calls since startup; latencies in microseconds
+    long getCount();
+    long getErrors();
+    double getMeanMicros();
+    long getP50Micros();
+    long getP90Micros();
+    long getP99Micros();
+    long getP999Micros();
+    long getMaxMicros();
+}
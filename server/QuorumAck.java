@@ -0,0 +1,67 @@
+public class QuorumAck { // Counts backup acknowledgements for one replicated batch of writes
+    private boolean armed = false;
+    private int required;
+    private int expected;
+    private int acks = 0;
+    private int failures = 0;
+    private Runnable whenDecided; // Run once, outside the lock, when await would stop waiting
+
+    void arm(int required, int expected, Runnable whenDecided) { // Called once the batch has been handed to the backups
+        synchronized (this) {
+            this.required = required;
+            this.expected = expected;
+            this.whenDecided = whenDecided;
+            this.armed = true;
+            notifyAll();
+        }
+        decided();
+    }
+
+    void success() {
+        synchronized (this) {
+            acks++;
+            notifyAll();
+        }
+        decided();
+    }
+
+    void failure() {
+        synchronized (this) {
+            failures++;
+            notifyAll();
+        }
+        decided();
+    }
+
+    private void decided() {
+        Runnable action;
+        synchronized (this) {
+            if (!armed || !isDecided() || whenDecided == null)
+                return;
+            action = whenDecided;
+            whenDecided = null;
+        }
+        action.run();
+    }
+
+    private boolean isDecided() { // Enough backups acknowledged, or too many failed for that to happen
+        return acks >= required || expected - failures < required;
+    }
+
+    // Waits until enough backups acknowledged, the quorum became unreachable, or the timeout passed
+    synchronized boolean await(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!armed || !isDecided()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return armed && acks >= required;
+    }
+
+    synchronized int acks() {
+        return acks;
+    }
+}
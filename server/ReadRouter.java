@@ -0,0 +1,190 @@
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class ReadRouter { // Spreads read-only requests over the backups, within a consistency bound
+    enum Routing { ROUND_ROBIN, LEAST_LOADED }
+
+    // BOUNDED: a backup may trail the primary by at most maxLag operations, as of the last sample.
+    // READ_YOUR_WRITES: a read sees every write this FrontEnd has returned to a client.
+    enum Consistency { BOUNDED, READ_YOUR_WRITES }
+
+    static class Target {
+        final Membership.Peer peer;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile long seq = -1; // Last sequence number the backup reported, -1 until sampled
+        volatile boolean down = false; // Unreachable since the last sample
+
+        Target(Membership.Peer peer) {
+            this.peer = peer;
+        }
+    }
+
+    private final Routing routing;
+    private final Consistency consistency;
+    private final long maxLag;
+    private final String prefix;
+    private final Supplier<FrontEnd.Primary> primary;
+    private final Membership membership;
+    private final ConcurrentHashMap<String, Target> targets = new ConcurrentHashMap<>();
+    private volatile Target[] ready = new Target[0]; // Backups that answered the last sample
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "read-router");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile long primarySeq = -1; // Primary's last sequence number as of the last sample
+    // Read-your-writes fence: the highest sequence number a write returned to a client carried
+    private final AtomicLong fence = new AtomicLong();
+
+    private final LongAdder backupReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder staleReads = new LongAdder();
+
+    ReadRouter(Registry registry, String prefix, Supplier<FrontEnd.Primary> primary, Routing routing,
+            Consistency consistency, long maxLag) {
+        this.routing = routing;
+        this.consistency = consistency;
+        this.maxLag = Math.max(0, maxLag);
+        this.prefix = prefix;
+        this.primary = primary;
+        this.membership = new Membership(registry, prefix, null);
+    }
+
+    void start(long sampleMs, long membershipRefreshMs) {
+        membership.refresh();
+        membership.start(membershipRefreshMs);
+        sample();
+        timer.scheduleWithFixedDelay(this::sample, sampleMs, sampleMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() { // Polls every replica's sequence number and rebuilds the set of readable backups
+        FrontEnd.Primary current = primary.get();
+        if (current != null) {
+            try {
+                primarySeq = current.stub.getLastSeq();
+            } catch (RemoteException e) {
+                // Keep the old value, the request path handles the failover
+            }
+        }
+
+        String primaryName = current == null ? null : prefix + current.id;
+        List<Target> alive = new ArrayList<>();
+        for (Membership.Peer peer : membership.peers()) {
+            if (peer.name.equals(primaryName))
+                continue;
+            Target target = targets.compute(peer.name, (n, old) -> old != null && old.peer == peer ? old : new Target(peer));
+            try {
+                target.seq = peer.stub.getLastSeq();
+                target.down = false;
+                membership.reportSuccess(peer);
+                alive.add(target);
+            } catch (RemoteException e) {
+                target.down = true;
+                membership.reportFailure(peer);
+            }
+        }
+        targets.keySet().removeIf(name -> !membership.contains(name));
+        ready = alive.toArray(new Target[0]);
+    }
+
+    // Lowest sequence number a backup must have applied to serve a read now, or -1 to read from the primary
+    long minSeq() {
+        if (consistency == Consistency.BOUNDED) {
+            long seq = primarySeq;
+            return seq < 0 ? -1 : Math.max(0, seq - maxLag);
+        }
+
+        return fence.get();
+    }
+
+    Target acquire(long minSeq) { // Picks a backup for one read, or null if none can serve it
+        Target[] candidates = ready;
+        int n = candidates.length;
+        if (minSeq < 0 || n == 0) {
+            primaryReads.increment();
+            return null;
+        }
+
+        int start = Math.floorMod(next.getAndIncrement(), n);
+        Target chosen = null;
+        for (int i = 0; i < n; i++) {
+            Target target = candidates[(start + i) % n];
+            if (target.down)
+                continue;
+            if (consistency == Consistency.BOUNDED && target.seq < minSeq)
+                continue; // Too far behind as of the last sample
+            if (routing == Routing.ROUND_ROBIN) {
+                chosen = target;
+                break;
+            }
+            if (chosen == null || target.inFlight.get() < chosen.inFlight.get())
+                chosen = target;
+        }
+        if (chosen == null) {
+            primaryReads.increment();
+            return null;
+        }
+        chosen.inFlight.incrementAndGet();
+        backupReads.increment();
+        return chosen;
+    }
+
+    void release(Target target) {
+        target.inFlight.decrementAndGet();
+    }
+
+    // Returns true if the read should be retried on the primary, false if the backup's error is the answer
+    boolean failed(Target target, RemoteException e) {
+        StaleReadException stale = StaleReadException.unwrap(e);
+        if (stale != null) {
+            target.seq = stale.getSeq();
+            staleReads.increment();
+            return true;
+        }
+        if (FrontEnd.isTransportFailure(e)) {
+            target.down = true; // Until the next sample finds it again
+            membership.reportFailure(target.peer);
+            return true;
+        }
+        return false;
+    }
+
+    void onWrite(long seq, long epoch) { // Called with a write's reply before it is returned to the client
+        FrontEnd.Primary current = primary.get();
+        if (current != null && current.epoch == epoch)
+            fence.accumulateAndGet(seq, Math::max); // A reply from a replaced primary says nothing about the new one
+    }
+
+    void onNewPrimary() { // Sequence numbers from the old primary say nothing about the new one
+        primarySeq = -1;
+        fence.set(0);
+    }
+
+    String stats() {
+        return "backup=" + backupReads.sum() + " primary=" + primaryReads.sum() + " stale=" + staleReads.sum()
+                + " routing=" + routing + " consistency=" + consistency;
+    }
+
+    void reportEvery(long seconds, String label) { // Prints the read routing counters periodically while reads are flowing
+        long[] last = { 0 };
+        timer.scheduleAtFixedRate(() -> {
+            long now = backupReads.sum() + primaryReads.sum();
+            if (now != last[0]) {
+                last[0] = now;
+                System.out.println(label + " reads: " + stats());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+}
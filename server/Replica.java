@@ -1,56 +1,254 @@
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Replica implements ReplicaInterface {
     // Core auction data structures
-    private List<AuctionItem> items = Collections.synchronizedList(new ArrayList<>());
-    private List<User> users = Collections.synchronizedList(new ArrayList<>());
-    private ConcurrentHashMap<Integer, String> bidderEmails = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Integer, Integer> reservePrices = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Integer, Integer> auctionCreators = new ConcurrentHashMap<>();
+    private final AuctionBook book = new AuctionBook();
+    private final UserRegistry users = new UserRegistry();
 
     // Replica-specific fields
     private final int replicaID;
-    private boolean isPrimary = false;
+    private volatile boolean isPrimary = false;
+    private volatile long epoch = 0; // Highest primary epoch seen; bumped on every promotion so a demoted primary can be told apart
     private static final String REPLICA_PREFIX = "Replica_";
     private final Registry registry;
+    private final Membership membership; // Cached stubs of the other replicas, refreshed on a timer or after a failure
+    private static final long MEMBERSHIP_REFRESH_MS = Long.getLong("replica.membershipRefreshMs", 2000);
 
-    // Synchronization locks
-    private final Object userLock = new Object();
-    private final Object itemLock = new Object();
+    // Replication: "ops" ships sequenced operation records, "state" ships the full ReplicaState on every write
+    private static final boolean SHIP_FULL_STATE = "state".equals(System.getProperty("replica.replication", "ops"));
+    private volatile long lastAppliedSeq = 0; // Last operation sequence number assigned (primary) or applied (backup)
+    private volatile long lastOpEpoch = 0; // Epoch of the operation at lastAppliedSeq, written before it
+    private final ConcurrentHashMap<String, BackupChannel> backups = new ConcurrentHashMap<>();
 
-    protected static class User implements Serializable {
-        private static final long serialVersionUID = 1L;
-        int userID;
-        String email;
+    // When a write returns: all, majority or one backup must have acknowledged it within the timeout
+    private static final AckPolicy ACK_POLICY = AckPolicy.valueOf(System.getProperty("replica.ack", "all").toUpperCase());
+    private static final long ACK_TIMEOUT_MS = Long.getLong("replica.ackTimeoutMs", 2000);
 
-        User(int userID, String email) {
-            this.userID = userID;
-            this.email = email;
-        }
-    }
+    // Group commit: writes arriving while the previous batch waits on the backups are replicated together, up to
+    // the batch size and for at most the window. A write with nothing ahead of it is sent at once.
+    private static final long BATCH_WINDOW_MICROS = Long.getLong("replica.batchWindowMicros", 500);
+    private static final int BATCH_MAX = Integer.getInteger("replica.batchMax", 64);
+    private static final int BID_BATCH_MAX = Integer.getInteger("replica.bidBatchMax", 1000); // Records a bidBatch holds at once
+    private final GroupCommit groupCommit = new GroupCommit(BATCH_WINDOW_MICROS, BATCH_MAX, ACK_POLICY, this::currentBackups);
+
+    // Write-ahead log under replica.dataDir, replayed on startup. replica.walSync is "always" (fsync before a
+    // write is acknowledged), "interval" (fsync every replica.walSyncIntervalMs) or "none".
+    private static final boolean WAL_ENABLED = Boolean.parseBoolean(System.getProperty("replica.wal", "true"));
+    private static final String DATA_DIR = System.getProperty("replica.dataDir", "data");
+    private static final WriteAheadLog.Sync WAL_SYNC = WriteAheadLog.Sync.valueOf(System.getProperty("replica.walSync", "interval").toUpperCase());
+    private static final long WAL_SYNC_INTERVAL_MS = Long.getLong("replica.walSyncIntervalMs", 100);
+    private static final long WAL_SEGMENT_BYTES = Long.getLong("replica.walSegmentBytes", 64L << 20);
+    private final WriteAheadLog wal; // null when disabled
+
+    // Snapshots: every replica.snapshotIntervalSeconds, if at least replica.snapshotMinRecords were logged since
+    // the last one, the state is written to disk and the log segments before it are deleted
+    private static final long SNAPSHOT_INTERVAL_SECONDS = Long.getLong("replica.snapshotIntervalSeconds", 30);
+    private static final long SNAPSHOT_MIN_RECORDS = Long.getLong("replica.snapshotMinRecords", 1000);
+    private static final int SNAPSHOTS_RETAINED = Integer.getInteger("replica.snapshotsRetained", 2);
+    private final Checkpointer checkpoints;
+
+    // Catch-up: the last replica.retainedOps operations are kept, on backups too so they are there after a
+    // failover. A backup that missed only those is sent them instead of the whole state.
+    private static final int RETAINED_OPS = Integer.getInteger("replica.retainedOps", 10000);
+    private final RetainedOps retained = new RetainedOps(RETAINED_OPS);
+
+    // State transfer: a joining backup pulls the state in chunks of up to replica.transferChunk users or
+    // auctions, buffering the operations that arrive meanwhile and applying them once the state is in place
+    private static final int TRANSFER_CHUNK = Integer.getInteger("replica.transferChunk", 1000);
+    private final Object transferLock = new Object(); // One transfer at a time
+    private volatile long transfers = 0; // Completed transfers
+    private boolean transferring = false; // Guarded by applyLock
+    private boolean transferSuperseded = false; // A full state arrived during the transfer; guarded by applyLock
+    private final List<ReplicaOp> transferBuffer = new ArrayList<>(); // Guarded by applyLock
+
+    // Metrics: every request is counted and timed, and so is the wait for backups and each backup's deliveries.
+    // Exposed over JMX and printed every replica.metricsSeconds.
+    private final Metrics metrics;
+    private final OpStats registerStats, getSpecStats, newAuctionStats, listItemsStats, closeAuctionStats, bidStats,
+            bidBatchStats, getSpecBatchStats, listItemsPageStats, listItemsSinceStats;
+    private final OpStats applyStats; // Operations applied as a backup
+    private final OpStats quorumStats; // Waiting for backups to acknowledge a write
+
+    // Synchronization locks. Item-local writes lock only their AuctionRecord, and each write queues its
+    // operation for replication while still holding that lock, so backups see the primary's order per item.
+    private final Object userLock = new Object();
+    private final Object applyLock = new Object(); // Serializes state updates arriving at a backup
+    private final Object replicationLock = new Object(); // Orders operations as they are sent to backups
+
+    // Highest sequence number the current write on this thread waited for backups to acknowledge, -1 if it
+    // replicated nothing; returned on Sequenced replies
+    private static final ThreadLocal<long[]> WRITE_SEQ = ThreadLocal.withInitial(() -> new long[] { -1 });
 
     public Replica(int id) throws RemoteException {
         this.replicaID = id;
+        this.metrics = new Metrics("auction:type=Replica,id=" + id);
+        this.registerStats = metrics.op("requests", "register");
+        this.getSpecStats = metrics.op("requests", "getSpec");
+        this.newAuctionStats = metrics.op("requests", "newAuction");
+        this.listItemsStats = metrics.op("requests", "listItems");
+        this.closeAuctionStats = metrics.op("requests", "closeAuction");
+        this.bidStats = metrics.op("requests", "bid");
+        this.bidBatchStats = metrics.op("requests", "bidBatch");
+        this.getSpecBatchStats = metrics.op("requests", "getSpecBatch");
+        this.listItemsPageStats = metrics.op("requests", "listItemsPage");
+        this.listItemsSinceStats = metrics.op("requests", "listItemsSince");
+        this.applyStats = metrics.op("replication", "apply");
+        this.quorumStats = metrics.op("replication", "quorum");
+        Path dataDir = Paths.get(DATA_DIR, "replica-" + id);
+        try {
+            this.wal = WAL_ENABLED ? new WriteAheadLog(dataDir, WAL_SYNC, WAL_SYNC_INTERVAL_MS, WAL_SEGMENT_BYTES) : null;
+        } catch (IOException e) {
+            throw new RemoteException("Failed to open write-ahead log in " + dataDir, e);
+        }
+        this.checkpoints = wal == null ? null
+                : new Checkpointer(dataDir, wal, this::currentState, SNAPSHOTS_RETAINED, SNAPSHOT_MIN_RECORDS);
+        if (wal != null) {
+            recover(dataDir);
+            checkpoints.start(SNAPSHOT_INTERVAL_SECONDS);
+        }
         this.registry = LocateRegistry.getRegistry();
+        this.membership = new Membership(registry, REPLICA_PREFIX, REPLICA_PREFIX + id);
+        membership.refresh();
+        membership.start(MEMBERSHIP_REFRESH_MS);
+        groupCommit.reportEvery(Long.getLong("replica.batchStatsSeconds", 60), "Replica " + id);
+        metrics.gauges(ReplicaStatsMBean.class, new ReplicaStatsMBean() {
+            @Override
+            public boolean isPrimary() {
+                return isPrimary;
+            }
+
+            @Override
+            public long getEpoch() {
+                return epoch;
+            }
+
+            @Override
+            public long getLastSeq() {
+                return lastAppliedSeq;
+            }
+
+            @Override
+            public int getUsers() {
+                return users.size();
+            }
+
+            @Override
+            public int getAuctions() {
+                return book.size();
+            }
+
+            @Override
+            public long getLastSnapshotBytes() {
+                return checkpoints == null ? 0 : checkpoints.lastBytes();
+            }
+        });
+        metrics.reportEvery(Long.getLong("replica.metricsSeconds", 60), "Replica " + id);
+    }
+
+    // Rebuilds the state this replica had from its newest snapshot and the log written after it
+    private void recover(Path dataDir) throws RemoteException {
         try {
-            rejoin();
-        } catch (Exception e) {
-            System.out.println("New replica - starting fresh");
+            long start = System.nanoTime();
+            ReplicaState snapshot = checkpoints.loadNewest();
+            if (snapshot != null) {
+                load(snapshot);
+            }
+            long records = wal.replay(new WriteAheadLog.Replay() {
+                @Override
+                public void op(ReplicaOp op) {
+                    apply(op);
+                    stamp(op);
+                    advance(op);
+                    epoch = Math.max(epoch, op.epoch);
+                }
+
+                @Override
+                public void state(ReplicaState state) {
+                    load(state);
+                }
+            }, checkpoints.replayFrom());
+            if (snapshot != null || records > 0) {
+                System.out.println("Replica " + replicaID + " recovered " + (snapshot != null ? "a snapshot and " : "")
+                        + records + " log records up to op " + lastAppliedSeq + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Failed to recover from " + dataDir, e);
+        }
+    }
+
+    private void load(ReplicaState state) {
+        book.restore(state.getBook());
+        users.restore(state.getUsers());
+        installed(state.getLastSeq(), state.getLastOpEpoch());
+        epoch = Math.max(epoch, state.getEpoch());
+    }
+
+    private void advance(ReplicaOp op) { // Records op as the last one applied, after it has been applied and stamped
+        retained.add(op);
+        lastOpEpoch = op.epoch;
+        lastAppliedSeq = op.seq;
+    }
+
+    private void installed(long seq, long opEpoch) { // Records a state that replaced everything up to seq
+        retained.reset(seq);
+        lastOpEpoch = opEpoch;
+        lastAppliedSeq = seq;
+    }
+
+    private void syncLog() throws RemoteException { // Waits until the log is as durable as replica.walSync requires
+        if (wal == null)
+            return;
+        try {
+            wal.sync();
+        } catch (IOException e) {
+            throw new RemoteException("Write-ahead log failed: " + e.getMessage());
         }
     }
 
     public void setPrimary(boolean primary) throws RemoteException { //Sets primaru status for replica
-        this.isPrimary = primary;
-        System.out.println("Replica " + replicaID + " primary status set to: " + primary);
+        if (primary) {
+            promote(0);
+        } else {
+            isPrimary = false;
+            Log.info("Replica {} primary status set to: {}", replicaID, primary);
+        }
+    }
+
+    @Override
+    public long promote(long minEpoch) throws RemoteException {
+        membership.refresh(); // Replicas that bound since the last refresh are backups from the first write
+        synchronized (replicationLock) {
+            for (BackupChannel channel : backups.values()) {
+                channel.reset(); // A new primary checks every backup is on its history first
+            }
+            epoch = Math.max(epoch, minEpoch) + 1;
+            isPrimary = true;
+        }
+        Log.info("Replica {} primary status set to: true (epoch {})", replicaID, epoch);
+        return epoch;
+    }
+
+    private void observeEpoch(long seen) { // A newer epoch means another replica was promoted, so step down
+        synchronized (replicationLock) {
+            if (seen <= epoch)
+                return;
+            epoch = seen;
+            if (isPrimary) {
+                isPrimary = false;
+                Log.info("Replica {} stepped down, epoch {} is newer", replicaID, seen);
+            }
+        }
     }
 
     @Override
@@ -58,260 +256,808 @@ public class Replica implements ReplicaInterface {
         return isPrimary ? replicaID : -1;
     }
 
-    private void syncWithBackups() throws RemoteException {
-        if (!isPrimary)
-            return;
+    // Makes a write's change and queues its operation with queue. All of it happens under replicationLock once
+    // this replica is known to still be primary; demotion takes the same lock, so nothing is changed without an
+    // operation that logs and replicates it. Returns null, having changed nothing, if this replica is no longer
+    // primary. Called with the write's locks held so operations are queued in the order they were applied; the
+    // caller waits for the batch to be acknowledged with awaitBackups after releasing them.
+    private GroupCommit.Batch syncWithBackups(ReplicaOp op, Runnable change) {
+        synchronized (replicationLock) {
+            if (!isPrimary)
+                return null;
+            change.run();
+            return queue(List.of(op));
+        }
+    }
 
-        // Create state snapshot
-        ReplicaState state;
-        synchronized (itemLock) {
-            synchronized (userLock) {
-                state = new ReplicaState(items, users, bidderEmails, reservePrices, auctionCreators);
-            }
+    // Assigns the operations the next sequence numbers, logs them and adds them to the group commit batch, which
+    // sends them together. Called under replicationLock once their changes are made.
+    private GroupCommit.Batch queue(List<ReplicaOp> ops) {
+        for (ReplicaOp op : ops) {
+            op.seq = lastAppliedSeq + 1;
+            op.epoch = epoch;
+            stamp(op);
+            if (wal != null)
+                wal.append(op);
+            advance(op); // Published after the stamp, see listItemsSince
         }
+        return groupCommit.add(ops);
+    }
 
-        // Sync with all other replicas
-        try {
-            String[] boundNames = registry.list();
-            boolean anySuccess = false; // Track if at least one sync succeeds
+    private void awaitBackups(GroupCommit.Batch batch) throws RemoteException {
+        if (batch == null)
+            throw new NotPrimaryException("Not primary replica", epoch);
 
-            for (String name : boundNames) {
-                if (name.startsWith(REPLICA_PREFIX) && !name.equals(REPLICA_PREFIX + replicaID)) {
-                    try {
-                        ReplicaInterface backup = (ReplicaInterface) registry.lookup(name);
-                        backup.receiveState(state);
-                        anySuccess = true; // Mark that at least one sync worked
-                        System.out.println("Successfully synced with " + name);
-                    } catch (Exception e) {
-                        System.err.println("Failed to sync with replica " + name + ": " + e.getMessage());
-                    }
-                }
-            }
+        long start = System.nanoTime();
+        syncLog(); // The local log is written while the batch is on its way to the backups
 
-            // If no syncs succeeded at all, that's a problem
-            if (!anySuccess) {
-                throw new RemoteException("Failed to sync with any backup replicas");
+        try {
+            boolean acked = batch.ack.await(ACK_TIMEOUT_MS);
+            quorumStats.record(start);
+            if (!acked) {
+                quorumStats.failed();
+                Log.warn("Sync operation error: only {} backup(s) acknowledged up to op {} under policy {}",
+                        batch.ack.acks(), batch.lastSeq, ACK_POLICY);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long[] written = WRITE_SEQ.get();
+        written[0] = Math.max(written[0], batch.lastSeq);
+        for (BackupChannel channel : batch.targets) {
+            if (!channel.hasAcked(batch.lastSeq))
+                channel.markLagging(); // Caught up in the background
+        }
+        if (!isPrimary) {
+            // A backup rejected the write because another replica was promoted meanwhile
+            throw demotedDuringWrite();
+        }
+    }
 
-        } catch (Exception e) {
-            System.err.println("Sync operation error: " + e.getMessage());
-            // We might want to continue operation even if sync fails
-            // depending on your requirements for Level 5
+    // The write was applied and logged here, but whether it survives depends on whether the new primary got it.
+    // Not a NotPrimaryException, which tells the FrontEnd nothing changed and the write can be retried.
+    private RemoteException demotedDuringWrite() {
+        return new RemoteException("Replica " + replicaID
+                + " was demoted before the write was acknowledged, so it may or may not have taken effect");
+    }
+
+    private List<BackupChannel> currentBackups() { // Channels for every peer in the membership cache that isn't dead
+        List<Membership.Peer> peers = membership.peers();
+        List<BackupChannel> targets = new ArrayList<>(peers.size());
+        for (Membership.Peer peer : peers) {
+            BackupChannel channel = backups.get(peer.name);
+            if (channel == null || !channel.isFor(peer)) {
+                channel = backups.compute(peer.name, (n, old) -> {
+                    if (old != null && old.isFor(peer))
+                        return old;
+                    if (old != null)
+                        old.close(); // Peer left and came back
+                    return new BackupChannel(membership, peer, this::currentState, REPLICA_PREFIX + replicaID, retained,
+                            this::observeEpoch, SHIP_FULL_STATE, metrics.op("backup", peer.name));
+                });
+            }
+            targets.add(channel);
+        }
+        if (backups.size() > targets.size()) {
+            backups.entrySet().removeIf(e -> {
+                if (membership.contains(e.getKey()))
+                    return false;
+                e.getValue().close(); // Peer left the registry
+                return true;
+            });
         }
+        return targets;
+    }
+
+    private ReplicaState currentState() {
+        // Writers aren't blocked: lastAppliedSeq is read first, so the copy holds at least every operation up to it
+        // and possibly some after it, which is safe because backups apply replayed operations idempotently
+        long seq = lastAppliedSeq;
+        return new ReplicaState(book, users, seq, lastOpEpoch, epoch);
     }
 
     public void receiveState(ReplicaState state) throws RemoteException { //Updates replica state during sync
+        checkEpoch(state.getEpoch());
         if (isPrimary)
             return; // Primary doesn't receive state updates
 
-        synchronized (itemLock) {
-            synchronized (userLock) {
-                items.clear();
-                items.addAll(state.getItems());
-                users.clear();
-                users.addAll(state.getUsers());
-                bidderEmails.clear();
-                bidderEmails.putAll(state.getBidderEmails());
-                reservePrices.clear();
-                reservePrices.putAll(state.getReservePrices());
-                auctionCreators.clear();
-                auctionCreators.putAll(state.getAuctionCreators());
+        synchronized (applyLock) {
+            book.restore(state.getBook());
+            users.restore(state.getUsers());
+            installed(state.getLastSeq(), state.getLastOpEpoch());
+            transferSuperseded = transferring; // Newer than what a transfer in progress would install
+            if (wal != null)
+                wal.append(state);
+        }
+        syncLog();
+    }
+
+    @Override
+    public long applyOps(List<ReplicaOp> ops) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return applyReplicated(ops);
+        } catch (RemoteException e) {
+            applyStats.failed();
+            throw e;
+        } finally {
+            applyStats.record(start);
+        }
+    }
+
+    private long applyReplicated(List<ReplicaOp> ops) throws RemoteException {
+        for (ReplicaOp op : ops) {
+            checkEpoch(op.epoch);
+        }
+        long applied;
+        synchronized (applyLock) {
+            if (isPrimary)
+                return lastAppliedSeq; // Primary doesn't receive state updates
+            if (transferring) {
+                transferBuffer.addAll(ops); // Applied once the transferred state is in place
+                return lastAppliedSeq;
+            }
+
+            for (ReplicaOp op : ops) {
+                if (op.seq <= lastAppliedSeq)
+                    continue; // Already applied
+                if (op.seq != lastAppliedSeq + 1)
+                    break; // Gap - the primary will catch us up
+                apply(op);
+                stamp(op);
+                if (wal != null)
+                    wal.append(op);
+                advance(op);
             }
+            applied = lastAppliedSeq;
+        }
+        syncLog(); // Acknowledged only once logged
+        return applied;
+    }
+
+    private void checkEpoch(long senderEpoch) throws NotPrimaryException { // Rejects updates from a demoted primary
+        if (senderEpoch < epoch)
+            throw new NotPrimaryException("Stale primary epoch " + senderEpoch, epoch);
+        observeEpoch(senderEpoch);
+    }
+
+    private void apply(ReplicaOp op) { // Operations are idempotent so they can be replayed over a newer snapshot
+        switch (op.type) {
+            case REGISTER:
+                users.add(op.userID, op.email);
+                break;
+            case NEW_AUCTION:
+                AuctionRecord record = new AuctionRecord();
+                record.item = new AuctionItem();
+                record.item.itemID = op.itemID;
+                record.item.name = op.name;
+                record.item.description = op.description;
+                record.reservePrice = op.price;
+                record.creatorID = op.userID;
+                book.insert(record);
+                break;
+            case BID:
+                AuctionRecord target = book.get(op.itemID);
+                if (target != null) {
+                    synchronized (target) {
+                        if (op.price > target.item.highestBid) {
+                            target.item.highestBid = op.price;
+                            target.bidderEmail = op.email;
+                        }
+                    }
+                }
+                break;
+            case CLOSE:
+                book.remove(op.itemID);
+                break;
+        }
+    }
+
+    private void stamp(ReplicaOp op) { // Records the operation's sequence number on the auction for listItemsSince
+        switch (op.type) {
+            case NEW_AUCTION:
+            case BID:
+                book.touched(op.itemID, op.seq);
+                break;
+            case CLOSE:
+                book.closed(op.itemID, op.seq);
+                break;
+            default:
+                break;
         }
     }
 
+    // Versions handed to clients carry the epoch, since a new primary may have reused sequence numbers
+    // the old one assigned but never replicated
+    private static final int VERSION_SEQ_BITS = 40;
+
     // Auction Interface Implementation
 
     @Override
     public int register(String email) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return registerUser(email);
+        } catch (RemoteException e) {
+            registerStats.failed();
+            throw e;
+        } finally {
+            registerStats.record(start);
+        }
+    }
+
+    private int registerUser(String email) throws RemoteException {
         if (!isPrimary) {
-            throw new RemoteException("Not primary replica");
+            throw new NotPrimaryException("Not primary replica", epoch);
         }
 
-        synchronized (userLock) {
-            for (User user : users) {
-                if (user.email.equals(email)) {
-                    return user.userID;
-                }
-            }
+        int existing = users.getUserID(email); // Returning users are answered without taking the lock
+        if (existing != -1) {
+            return existing;
+        }
 
-            int userID = users.size();
-            users.add(new User(userID, email));
-            syncWithBackups();
-            System.out.println("Replica " + replicaID + " Processing register request for " + email);
-            return userID;
+        ReplicaOp op;
+        GroupCommit.Batch pending;
+        synchronized (userLock) { // Held by every registration, so the next userID stays free until it is added
+            int concurrent = users.getUserID(email);
+            if (concurrent != -1) {
+                return concurrent; // Registered by a concurrent request
+            }
+            op = ReplicaOp.register(users.size(), email);
+            pending = syncWithBackups(op, () -> users.add(op.userID, email));
         }
+        awaitBackups(pending);
+        Log.info("Replica {} Processing register request for {}", replicaID, email);
+        return op.userID;
     }
 
     @Override
     public AuctionItem getSpec(int itemID) throws RemoteException {
-        synchronized (itemLock) {
-            for (AuctionItem item : items) {
-                if (item.itemID == itemID) {
-                    return item;
-                }
-            }
+        long start = System.nanoTime();
+        try {
+            return findSpec(itemID);
+        } catch (RemoteException e) {
+            getSpecStats.failed();
+            throw e;
+        } finally {
+            getSpecStats.record(start);
+        }
+    }
+
+    private AuctionItem findSpec(int itemID) throws RemoteException {
+        AuctionRecord record = book.get(itemID);
+        if (record == null) {
             throw new RemoteException("Item not found");
         }
+        return record.item;
     }
 
     @Override
     public int newAuction(int userID, AuctionSaleItem item) throws RemoteException {
-        if (!isPrimary) {
-            throw new RemoteException("Not primary replica");
+        long start = System.nanoTime();
+        try {
+            return openAuction(userID, item);
+        } catch (RemoteException e) {
+            newAuctionStats.failed();
+            throw e;
+        } finally {
+            newAuctionStats.record(start);
         }
+    }
 
-        synchronized (itemLock) {
-            synchronized (userLock) {
-                // Validate user exists
-                boolean userExists = false;
-                for (User user : users) {
-                    if (user.userID == userID) {
-                        userExists = true;
-                        break;
-                    }
-                }
-                if (!userExists) {
-                    throw new RemoteException("Invalid user ID");
-                }
-
-                // Create new auction
-                AuctionItem newItem = new AuctionItem();
-                newItem.itemID = items.size();
-                newItem.name = item.name;
-                newItem.description = item.description;
-                newItem.highestBid = 0;
+    private int openAuction(int userID, AuctionSaleItem item) throws RemoteException {
+        if (!isPrimary) {
+            throw new NotPrimaryException("Not primary replica", epoch);
+        }
 
-                reservePrices.put(newItem.itemID, item.reservePrice);
-                items.add(newItem);
-                auctionCreators.put(newItem.itemID, userID);
+        // Validate user exists
+        if (!users.exists(userID)) {
+            throw new RemoteException("Invalid user ID");
+        }
 
-                syncWithBackups();
-                System.out.println("Replica " + replicaID + " Processing request");
-                return newItem.itemID;
-            }
+        // Create new auction. A bid that finds it before its operation is queued waits on the record.
+        AuctionRecord record = book.allocate(userID, item);
+        GroupCommit.Batch pending;
+        synchronized (record) {
+            pending = syncWithBackups(ReplicaOp.newAuction(record), () -> book.insert(record));
         }
+        awaitBackups(pending);
+        Log.info("Replica {} Processing request", replicaID);
+        return record.item.itemID;
     }
 
     @Override
     public AuctionItem[] listItems() throws RemoteException {
-        synchronized (itemLock) {
-            return items.toArray(new AuctionItem[0]);
+        long start = System.nanoTime();
+        try {
+            return currentItems();
+        } catch (RemoteException e) {
+            listItemsStats.failed();
+            throw e;
+        } finally {
+            listItemsStats.record(start);
         }
     }
 
+    private AuctionItem[] currentItems() throws RemoteException {
+        return book.listItems();
+    }
+
     @Override
     public AuctionResult closeAuction(int userID, int itemID) throws RemoteException {
-        if (!isPrimary) {
-            throw new RemoteException("Not primary replica");
+        long start = System.nanoTime();
+        try {
+            return endAuction(userID, itemID);
+        } catch (RemoteException e) {
+            closeAuctionStats.failed();
+            throw e;
+        } finally {
+            closeAuctionStats.record(start);
         }
+    }
 
-        synchronized (itemLock) {
-            Integer creatorID = auctionCreators.get(itemID);
-            if (creatorID == null || creatorID != userID) {
-                throw new RemoteException("Only the auction creator can close this auction");
-            }
+    private AuctionResult endAuction(int userID, int itemID) throws RemoteException {
+        if (!isPrimary) {
+            throw new NotPrimaryException("Not primary replica", epoch);
+        }
 
-            AuctionItem item = null;
-            for (AuctionItem i : items) {
-                if (i.itemID == itemID) {
-                    item = i;
-                    break;
-                }
-            }
+        AuctionRecord record = book.get(itemID);
+        if (record == null || record.creatorID != userID) {
+            throw new RemoteException("Only the auction creator can close this auction");
+        }
 
-            if (item == null) {
-                throw new RemoteException("Invalid item ID");
+        AuctionResult result = new AuctionResult();
+        GroupCommit.Batch pending;
+        synchronized (record) {
+            if (record.closed) {
+                throw new RemoteException("Only the auction creator can close this auction"); // Closed concurrently
             }
 
-            AuctionResult result = new AuctionResult();
-            if (item.highestBid >= reservePrices.get(itemID)) {
-                result.winningEmail = bidderEmails.get(itemID);
-                result.winningPrice = item.highestBid;
+            if (record.item.highestBid >= record.reservePrice) {
+                result.winningEmail = record.bidderEmail;
+                result.winningPrice = record.item.highestBid;
             } else {
                 result.winningEmail = null;
                 result.winningPrice = 0;
             }
 
-            items.remove(item);
-            bidderEmails.remove(itemID);
-            reservePrices.remove(itemID);
-            auctionCreators.remove(itemID);
-
-            syncWithBackups();
-            System.out.println("Replica " + replicaID + " Processing request");
-            return result;
+            pending = syncWithBackups(ReplicaOp.close(itemID), () -> {
+                record.closed = true;
+                book.remove(itemID);
+            });
         }
+        awaitBackups(pending);
+        Log.info("Replica {} Processing request", replicaID);
+        return result;
     }
 
     @Override
     public boolean bid(int userID, int itemID, int price) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return placeBid(userID, itemID, price);
+        } catch (RemoteException e) {
+            bidStats.failed();
+            throw e;
+        } finally {
+            bidStats.record(start);
+        }
+    }
+
+    private boolean placeBid(int userID, int itemID, int price) throws RemoteException {
         if (!isPrimary) {
-            throw new RemoteException("Not primary replica");
+            throw new NotPrimaryException("Not primary replica", epoch);
         }
 
-        String bidderEmail = null;
-        synchronized (userLock) {
-            for (User user : users) {
-                if (user.userID == userID) {
-                    bidderEmail = user.email;
-                    break;
-                }
+        String bidderEmail = users.getEmail(userID);
+        if (bidderEmail == null) {
+            throw new RemoteException("Invalid user ID");
+        }
+
+        AuctionRecord record = book.get(itemID);
+        if (record == null) {
+            throw new RemoteException("Invalid item ID");
+        }
+
+        GroupCommit.Batch pending;
+        synchronized (record) {
+            if (record.closed) {
+                throw new RemoteException("Invalid item ID");
+            }
+            if (price <= record.item.highestBid) {
+                return false;
             }
+            pending = syncWithBackups(ReplicaOp.bid(itemID, price, bidderEmail), () -> {
+                record.item.highestBid = price;
+                record.bidderEmail = bidderEmail;
+            });
+        }
+        awaitBackups(pending);
+        Log.info("Replica {} Processing bid on item {} at {}", replicaID, itemID, price);
+        return true;
+    }
+
+    @Override
+    public BidResult[] bidBatch(int userID, int[] itemIDs, int[] prices) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return placeBids(userID, itemIDs, prices);
+        } catch (RemoteException e) {
+            bidBatchStats.failed();
+            throw e;
+        } finally {
+            bidBatchStats.record(start);
+        }
+    }
+
+    private BidResult[] placeBids(int userID, int[] itemIDs, int[] prices) throws RemoteException {
+        if (!isPrimary) {
+            throw new NotPrimaryException("Not primary replica", epoch);
+        }
+        if (itemIDs.length != prices.length) {
+            throw new RemoteException("Item and price counts differ");
+        }
+        if (itemIDs.length > BID_BATCH_MAX) {
+            throw new RemoteException("At most " + BID_BATCH_MAX + " bids per batch");
         }
 
+        String bidderEmail = users.getEmail(userID);
         if (bidderEmail == null) {
             throw new RemoteException("Invalid user ID");
         }
 
-        synchronized (itemLock) {
-            for (AuctionItem item : items) {
-                if (item.itemID == itemID) {
-                    synchronized (item) {
-                        if (price > item.highestBid) {
-                            item.highestBid = price;
-                            bidderEmails.put(itemID, bidderEmail);
-                            syncWithBackups();
-                            System.out.println("Replica " + replicaID + " Processing register request");
-                            return true;
-                        }
-                        return false;
+        // The batch's records are locked in itemID order, so two batches can't deadlock, and then replicationLock,
+        // the order every write takes them in. Under all of them the bids are checked and applied in request
+        // order and queued together: one primary check, consecutive sequence numbers, one batch to await.
+        TreeMap<Integer, AuctionRecord> records = new TreeMap<>();
+        for (int itemID : itemIDs) {
+            AuctionRecord record = book.get(itemID);
+            if (record != null)
+                records.put(itemID, record);
+        }
+        BidResult[] results = new BidResult[itemIDs.length];
+        GroupCommit.Batch pending = holdingAll(records.values().toArray(new AuctionRecord[0]), 0, () -> {
+            synchronized (replicationLock) {
+                if (!isPrimary)
+                    throw new NotPrimaryException("Not primary replica", epoch);
+                List<ReplicaOp> ops = new ArrayList<>();
+                for (int i = 0; i < itemIDs.length; i++) {
+                    AuctionRecord record = records.get(itemIDs[i]);
+                    if (record == null || record.closed) {
+                        results[i] = BidResult.INVALID_ITEM;
+                    } else if (prices[i] <= record.item.highestBid) {
+                        results[i] = BidResult.TOO_LOW;
+                    } else {
+                        record.item.highestBid = prices[i];
+                        record.bidderEmail = bidderEmail;
+                        ops.add(ReplicaOp.bid(itemIDs[i], prices[i], bidderEmail));
+                        results[i] = BidResult.ACCEPTED;
                     }
                 }
+                return ops.isEmpty() ? null : queue(ops);
             }
+        });
+        if (pending != null)
+            awaitBackups(pending);
+        Log.info("Replica {} Processing batch of {} bids", replicaID, itemIDs.length);
+        return results;
+    }
+
+    private interface Write<T> {
+        T run() throws RemoteException;
+    }
+
+    // Takes monitors[from..] in order, nested, and runs body holding all of them
+    private static <T> T holdingAll(Object[] monitors, int from, Write<T> body) throws RemoteException {
+        if (from == monitors.length)
+            return body.run();
+        synchronized (monitors[from]) {
+            return holdingAll(monitors, from + 1, body);
         }
-        throw new RemoteException("Invalid item ID");
+    }
+
+    // Runs a write and pairs its result with the sequence number of its batch. A write that replicated nothing,
+    // like a rejected bid, gets the last sequence number applied when it returned, which covers what it saw.
+    private <T> Sequenced<T> sequenced(Write<T> write) throws RemoteException {
+        long[] written = WRITE_SEQ.get();
+        written[0] = -1;
+        T value = write.run();
+        long seq = written[0] >= 0 ? written[0] : lastAppliedSeq;
+        return new Sequenced<>(value, seq, epoch);
+    }
+
+    @Override
+    public Sequenced<Integer> registerSequenced(String email) throws RemoteException {
+        return sequenced(() -> register(email));
+    }
+
+    @Override
+    public Sequenced<Integer> newAuctionSequenced(int userID, AuctionSaleItem item) throws RemoteException {
+        return sequenced(() -> newAuction(userID, item));
+    }
+
+    @Override
+    public Sequenced<AuctionResult> closeAuctionSequenced(int userID, int itemID) throws RemoteException {
+        return sequenced(() -> closeAuction(userID, itemID));
+    }
+
+    @Override
+    public Sequenced<Boolean> bidSequenced(int userID, int itemID, int price) throws RemoteException {
+        return sequenced(() -> bid(userID, itemID, price));
+    }
+
+    @Override
+    public Sequenced<BidResult[]> bidBatchSequenced(int userID, int[] itemIDs, int[] prices) throws RemoteException {
+        return sequenced(() -> bidBatch(userID, itemIDs, prices));
+    }
+
+    @Override
+    public AuctionItem[] getSpecBatch(int[] itemIDs) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return findSpecs(itemIDs);
+        } catch (RemoteException e) {
+            getSpecBatchStats.failed();
+            throw e;
+        } finally {
+            getSpecBatchStats.record(start);
+        }
+    }
+
+    private AuctionItem[] findSpecs(int[] itemIDs) throws RemoteException {
+        AuctionItem[] items = new AuctionItem[itemIDs.length];
+        for (int i = 0; i < itemIDs.length; i++) {
+            AuctionRecord record = book.get(itemIDs[i]);
+            items[i] = record == null ? null : record.item;
+        }
+        return items;
+    }
+
+    @Override
+    public AuctionItem[] getSpecBatch(int[] itemIDs, long minSeq) throws RemoteException {
+        checkFresh(minSeq);
+        return getSpecBatch(itemIDs);
+    }
+
+    @Override
+    public AuctionPage listItemsPage(AuctionFilter filter, int cursor, int pageSize) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return findPage(filter, cursor, pageSize);
+        } catch (RemoteException e) {
+            listItemsPageStats.failed();
+            throw e;
+        } finally {
+            listItemsPageStats.record(start);
+        }
+    }
+
+    private AuctionPage findPage(AuctionFilter filter, int cursor, int pageSize) throws RemoteException {
+        return book.page(filter, cursor, pageSize);
+    }
+
+    @Override
+    public AuctionPage listItemsPage(AuctionFilter filter, int cursor, int pageSize, long minSeq) throws RemoteException {
+        checkFresh(minSeq);
+        return listItemsPage(filter, cursor, pageSize);
+    }
+
+    @Override
+    public AuctionDelta listItemsSince(long version) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return changesSince(version);
+        } catch (RemoteException e) {
+            listItemsSinceStats.failed();
+            throw e;
+        } finally {
+            listItemsSinceStats.record(start);
+        }
+    }
+
+    private AuctionDelta changesSince(long version) throws RemoteException {
+        long currentEpoch = epoch;
+        long upTo = lastAppliedSeq; // Every change up to here has been stamped
+        long since = version >>> VERSION_SEQ_BITS == currentEpoch ? version & ((1L << VERSION_SEQ_BITS) - 1) : -1;
+        AuctionDelta delta = book.changesSince(since, upTo);
+        delta.version = currentEpoch << VERSION_SEQ_BITS | upTo;
+        return delta;
+    }
+
+    @Override
+    public AuctionDelta listItemsSince(long version, long minSeq) throws RemoteException {
+        checkFresh(minSeq);
+        return listItemsSince(version);
     }
 
     @Override
     public ReplicaState getState() throws RemoteException {
-        synchronized (itemLock) {
-            synchronized (userLock) {
-                return new ReplicaState(items, users, bidderEmails, reservePrices, auctionCreators);
+        synchronized (applyLock) { // On a backup, keeps the copy from interleaving with an incoming update
+            return currentState();
+        }
+    }
+
+    @Override
+    public StateChunk getStateChunk(StateChunk.Phase phase, int from) throws RemoteException {
+        // Served from the live state, nothing is held between chunks. lastAppliedSeq is read before the copy, so
+        // each chunk holds at least every operation up to it; later ones the puller replays idempotently.
+        StateChunk chunk = new StateChunk();
+        chunk.phase = phase;
+        chunk.epoch = epoch;
+        chunk.seq = lastAppliedSeq;
+        chunk.opEpoch = lastOpEpoch;
+        switch (phase) {
+            case USERS:
+                users.copyRange(chunk, from, TRANSFER_CHUNK);
+                break;
+            case ITEMS:
+                book.copyRange(chunk, from, TRANSFER_CHUNK);
+                break;
+            case CLOSED:
+                book.copyClosed(chunk);
+                break;
+        }
+        return chunk;
+    }
+
+    @Override
+    public long pullState(String sourceName) throws RemoteException {
+        try {
+            return pullState((ReplicaInterface) registry.lookup(sourceName));
+        } catch (NotBoundException e) {
+            throw new RemoteException("State source " + sourceName + " is not registered", e);
+        }
+    }
+
+    // Copies the source's state chunk by chunk into a staged book and registry and swaps them in. The state as
+    // of the first chunk's sequence number is all there; chunks copied later may already hold newer operations,
+    // which applying the buffered operations on top repeats harmlessly.
+    private long pullState(ReplicaInterface source) throws RemoteException {
+        long seen = transfers;
+        synchronized (transferLock) {
+            if (transfers != seen)
+                return lastAppliedSeq; // Another transfer finished while this one waited
+            synchronized (applyLock) {
+                transferring = true;
+                transferSuperseded = false;
+            }
+            try {
+                long start = System.nanoTime();
+                AuctionBook stagedBook = new AuctionBook();
+                UserRegistry stagedUsers = new UserRegistry();
+                StateChunk first = null;
+                int chunks = 0;
+                for (StateChunk.Phase phase : StateChunk.Phase.values()) {
+                    int from = 0;
+                    do {
+                        StateChunk chunk = source.getStateChunk(phase, from);
+                        if (first == null)
+                            first = chunk;
+                        else if (chunk.epoch != first.epoch)
+                            throw new RemoteException("Source changed epoch during state transfer");
+                        if (phase == StateChunk.Phase.USERS) {
+                            for (int i = 0; i < chunk.emails.length; i++) {
+                                if (chunk.emails[i] != null)
+                                    stagedUsers.add(from + i, chunk.emails[i]);
+                            }
+                        } else {
+                            stagedBook.add(chunk);
+                        }
+                        from = chunk.next;
+                        chunks++;
+                    } while (from >= 0);
+                }
+                checkEpoch(first.epoch);
+
+                long applied;
+                synchronized (applyLock) {
+                    if (isPrimary || transferSuperseded)
+                        return lastAppliedSeq;
+                    book.replaceWith(stagedBook);
+                    users.restore(stagedUsers);
+                    installed(first.seq, first.opEpoch);
+                    logTransferredState();
+                    for (ReplicaOp op : transferBuffer) {
+                        if (op.seq <= lastAppliedSeq)
+                            continue;
+                        if (op.seq != lastAppliedSeq + 1)
+                            break; // Gap - the primary catches us up again
+                        apply(op);
+                        stamp(op);
+                        if (wal != null)
+                            wal.append(op);
+                        advance(op);
+                    }
+                    applied = lastAppliedSeq;
+                }
+                syncLog();
+                transfers++;
+                Log.info("Replica {} pulled state up to op {} in {} chunks, {}ms", replicaID, first.seq, chunks,
+                        (System.nanoTime() - start) / 1000000);
+                return applied;
+            } finally {
+                synchronized (applyLock) {
+                    transferring = false;
+                    transferBuffer.clear();
+                }
             }
         }
     }
 
+    private void logTransferredState() { // Caller holds applyLock
+        if (wal == null)
+            return;
+        try {
+            checkpoints.checkpoint(); // The snapshot covers the new state, so the log doesn't need a copy of it
+        } catch (IOException e) {
+            Log.warn("Checkpoint after state transfer failed: {}", e.getMessage());
+            wal.append(currentState());
+        }
+    }
+
+    @Override
+    public List<ReplicaOp> getOpsAfter(long seq, long opEpoch) throws RemoteException {
+        return retained.after(seq, opEpoch);
+    }
+
+    @Override
+    public long getLastOpEpoch() throws RemoteException {
+        return lastOpEpoch;
+    }
+
     @Override
     public boolean isAlive() throws RemoteException {
         return true;
     }
 
+    @Override
+    public long getLastSeq() throws RemoteException {
+        return lastAppliedSeq;
+    }
+
+    @Override
+    public AuctionItem getSpec(int itemID, long minSeq) throws RemoteException {
+        checkFresh(minSeq);
+        return getSpec(itemID);
+    }
+
+    @Override
+    public AuctionItem[] listItems(long minSeq) throws RemoteException {
+        checkFresh(minSeq);
+        return listItems();
+    }
+
+    private void checkFresh(long minSeq) throws StaleReadException { // Reads from a backup must not go back past minSeq
+        long seq = lastAppliedSeq;
+        if (seq < minSeq)
+            throw new StaleReadException("Replica " + replicaID + " has applied up to " + seq + ", not " + minSeq, seq);
+    }
+
     @Override
     public void rejoin() throws RemoteException {
         isPrimary = false;  // Reset primary status
         try {
-            String[] boundNames = registry.list();
-            for (String name : boundNames) {
-                if (name.startsWith(REPLICA_PREFIX) && !name.equals(REPLICA_PREFIX + replicaID)) {
-                    ReplicaInterface RI = (ReplicaInterface) registry.lookup(name);
-                    if (RI.isPrimary()) {
-                        // Sync state from current primary
-                        ReplicaState state = RI.getState();
-                        receiveState(state);
-                        System.out.println("Replica " + replicaID + " joined and synced with primary");
+            for (Membership.Peer peer : membership.peers()) {
+                ReplicaInterface RI = peer.stub;
+                boolean primary;
+                try {
+                    primary = RI.isPrimary();
+                } catch (RemoteException e) {
+                    membership.reportFailure(peer);
+                    continue;
+                }
+                if (primary) {
+                    // Only the operations missed while away if the primary still has them, else its whole state
+                    long seq = lastAppliedSeq;
+                    List<ReplicaOp> missed = RI.getOpsAfter(seq, lastOpEpoch);
+                    if (missed != null && applyOps(missed) >= seq + missed.size()) {
+                        Log.info("Replica {} joined and caught up with {} operations from the primary", replicaID,
+                                missed.size());
                         return;
                     }
+                    pullState(RI);
+                    Log.info("Replica {} joined and synced with primary", replicaID);
+                    return;
                 }
             }
         } catch (Exception e) {
@@ -338,14 +1084,24 @@ public class Replica implements ReplicaInterface {
             } catch (NotBoundException e) {
                 // Good - replica doesn't exist
                 Replica replica = new Replica(replicaId);
-                ReplicaInterface stub = (ReplicaInterface) UnicastRemoteObject.exportObject(replica, 0);
+                TunedSocketFactory sockets = TunedSocketFactory.fromProperties();
+                ReplicaInterface stub = (ReplicaInterface) UnicastRemoteObject.exportObject(replica, 0, sockets, sockets);
                 registry.bind(name, stub);
+                try {
+                    replica.rejoin(); // Once bound, so the primary also sends what is written from here on
+                } catch (Exception ex) {
+                    System.out.println("New replica - starting fresh");
+                }
 
                 // Add shutdown hook
                 Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                     try {
                         try {
                             // Try to get registry and unbind
+                            if (replica.wal != null) {
+                                replica.checkpoints.stop();
+                                replica.wal.close();
+                            }
                             Registry reg = LocateRegistry.getRegistry();
                             reg.unbind(name);
                             UnicastRemoteObject.unexportObject(replica, true);
@@ -1,11 +1,29 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface ReplicaInterface extends Remote, Auction {
     void setPrimary(boolean isPrimary) throws RemoteException;
     boolean isPrimary() throws RemoteException;
+    long promote(long minEpoch) throws RemoteException; // Becomes primary under an epoch above minEpoch and any seen, returns it
     void receiveState(ReplicaState state) throws RemoteException;
+    long applyOps(List<ReplicaOp> ops) throws RemoteException; // Returns the backup's last applied sequence number
     ReplicaState getState() throws RemoteException;  // Add this
     boolean isAlive() throws RemoteException;        // Add this
-    void rejoin() throws RemoteException;            // Add this
+    long getLastSeq() throws RemoteException; // Last operation sequence number assigned (primary) or applied (backup)
+    AuctionItem getSpec(int itemID, long minSeq) throws RemoteException; // Reads that fail with StaleReadException
+    AuctionItem[] listItems(long minSeq) throws RemoteException;         // until minSeq has been applied
+    AuctionItem[] getSpecBatch(int[] itemIDs, long minSeq) throws RemoteException;
+    AuctionPage listItemsPage(AuctionFilter filter, int cursor, int pageSize, long minSeq) throws RemoteException;
+    AuctionDelta listItemsSince(long version, long minSeq) throws RemoteException;
+    Sequenced<Integer> registerSequenced(String email) throws RemoteException; // Writes for the FrontEnd, with the
+    Sequenced<Integer> newAuctionSequenced(int userID, AuctionSaleItem item) throws RemoteException; // sequence number
+    Sequenced<AuctionResult> closeAuctionSequenced(int userID, int itemID) throws RemoteException; // a read has to
+    Sequenced<Boolean> bidSequenced(int userID, int itemID, int price) throws RemoteException; // reach to see them
+    Sequenced<BidResult[]> bidBatchSequenced(int userID, int[] itemIDs, int[] prices) throws RemoteException;
+    void rejoin() throws RemoteException;
+    StateChunk getStateChunk(StateChunk.Phase phase, int from) throws RemoteException; // Part of the state from a position in the phase
+    long pullState(String sourceName) throws RemoteException; // Replaces this replica's state with the named replica's, returns the sequence number it covers
+    List<ReplicaOp> getOpsAfter(long seq, long opEpoch) throws RemoteException; // Retained operations after seq, null if the caller needs the full state
+    long getLastOpEpoch() throws RemoteException; // Epoch of the last applied operation
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class ReplicaOp implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    enum Type { REGISTER, NEW_AUCTION, BID, CLOSE }
+    private static final Type[] TYPES = Type.values();
+
+    Type type;
+    long seq;           // position in the primary's operation log, assigned when replicated
+    long epoch;         // epoch of the primary that issued it
+    int userID;         // REGISTER user, NEW_AUCTION creator
+    int itemID;
+    int price;          // BID amount, NEW_AUCTION reserve price
+    String email;       // REGISTER email, BID bidder email
+    String name;
+    String description;
+
+    static ReplicaOp register(int userID, String email) {
+        ReplicaOp op = new ReplicaOp();
+        op.type = Type.REGISTER;
+        op.userID = userID;
+        op.email = email;
+        return op;
+    }
+
+    static ReplicaOp newAuction(AuctionRecord record) {
+        ReplicaOp op = new ReplicaOp();
+        op.type = Type.NEW_AUCTION;
+        op.userID = record.creatorID;
+        op.itemID = record.item.itemID;
+        op.price = record.reservePrice;
+        op.name = record.item.name;
+        op.description = record.item.description;
+        return op;
+    }
+
+    static ReplicaOp bid(int itemID, int price, String email) {
+        ReplicaOp op = new ReplicaOp();
+        op.type = Type.BID;
+        op.itemID = itemID;
+        op.price = price;
+        op.email = email;
+        return op;
+    }
+
+    static ReplicaOp close(int itemID) {
+        ReplicaOp op = new ReplicaOp();
+        op.type = Type.CLOSE;
+        op.itemID = itemID;
+        return op;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+
+    void writeTo(DataOutput out) throws IOException { // Also the write-ahead log's record format
+        out.writeByte(type.ordinal());
+        Codec.writeVarLong(out, seq);
+        Codec.writeVarLong(out, epoch);
+        Codec.writeVarInt(out, userID);
+        Codec.writeVarInt(out, itemID);
+        Codec.writeVarInt(out, price);
+        Codec.writeString(out, email);
+        Codec.writeString(out, name);
+        Codec.writeString(out, description);
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        type = TYPES[in.readByte()];
+        seq = Codec.readVarLong(in);
+        epoch = Codec.readVarLong(in);
+        userID = Codec.readVarInt(in);
+        itemID = Codec.readVarInt(in);
+        price = Codec.readVarInt(in);
+        email = Codec.readString(in);
+        name = Codec.readString(in);
+        description = Codec.readString(in);
+    }
+}
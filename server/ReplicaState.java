@@ -1,38 +1,62 @@
-import java.io.Serializable;
-import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
-public class ReplicaState implements Serializable {
+public class ReplicaState implements Externalizable {
     private static final long serialVersionUID = 1L;
-    private final List<AuctionItem> items;
-    private final List<Replica.User> users;
-    private final Map<Integer, String> bidderEmails;
-    private final Map<Integer, Integer> reservePrices;
-    private final Map<Integer, Integer> auctionCreators;
-    private final long stateVersion;
-
-    public ReplicaState(List<AuctionItem> items, List<Replica.User> users,
-                       Map<Integer, String> bidderEmails,
-                       Map<Integer, Integer> reservePrices,
-                       Map<Integer, Integer> auctionCreators) {
-        this.items = new ArrayList<>(items);
-        this.users = new ArrayList<>(users);
-        this.bidderEmails = new HashMap<>(bidderEmails);
-        this.reservePrices = new HashMap<>(reservePrices);
-        this.auctionCreators = new HashMap<>(auctionCreators);
-        this.stateVersion = System.currentTimeMillis();
+    private AuctionBook book;
+    private UserRegistry users;
+    private long lastSeq;    // last operation sequence number reflected in this state
+    private long epoch;      // epoch of the primary the state was taken from
+    private long lastOpEpoch; // epoch of the operation at lastSeq, or of a later one
+
+    public ReplicaState() { // For deserialization
+    }
+
+    public ReplicaState(AuctionBook book, UserRegistry users, long lastSeq, long lastOpEpoch, long epoch) {
+        this.lastSeq = lastSeq;
+        this.lastOpEpoch = lastOpEpoch;
+        this.epoch = epoch;
+        this.book = book.snapshot();
+        this.users = users.snapshot();
+    }
+
+    public AuctionBook getBook() { return book; }
+    public UserRegistry getUsers() { return users; }
+    public long getLastSeq() { return lastSeq; }
+    public long getEpoch() { return epoch; }
+    public long getLastOpEpoch() { return lastOpEpoch; }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
     }
 
-    public List<AuctionItem> getItems() { return new ArrayList<>(items); }
-    public List<Replica.User> getUsers() { return new ArrayList<>(users); }
-    public Map<Integer, String> getBidderEmails() { return new HashMap<>(bidderEmails); }
-    public Map<Integer, Integer> getReservePrices() { return new HashMap<>(reservePrices); }
-    public Map<Integer, Integer> getAuctionCreators() { return new HashMap<>(auctionCreators); }
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
 
-    public long getStateVersion() {
-        return stateVersion;
+    void writeTo(DataOutput out) throws IOException { // Also how the write-ahead log stores a full state
+        Codec.writeVarLong(out, lastSeq);
+        Codec.writeVarLong(out, epoch);
+        Codec.writeVarLong(out, lastOpEpoch);
+        Codec.StringTable emails = new Codec.StringTable(); // Users first, so bidder emails become references
+        users.writeTo(out, emails);
+        book.writeTo(out, emails);
     }
-    
-    public boolean isNewerThan(ReplicaState other) {
-        return other == null || this.stateVersion > other.stateVersion;
+
+    void readFrom(DataInput in) throws IOException {
+        lastSeq = Codec.readVarLong(in);
+        epoch = Codec.readVarLong(in);
+        lastOpEpoch = Codec.readVarLong(in);
+        Codec.StringTable emails = new Codec.StringTable();
+        users = new UserRegistry();
+        users.readFrom(in, emails);
+        book = new AuctionBook();
+        book.readFrom(in, emails);
     }
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+public interface ReplicaStatsMBean { // A replica's role and the size of its state
+    boolean isPrimary();
+    long getEpoch();
+    long getLastSeq();
+    int getUsers();
+    int getAuctions();
+    long getLastSnapshotBytes(); // Encoded size of the newest checkpoint, 0 before the first one
+}
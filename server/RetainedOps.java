@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RetainedOps { // The most recent operations a replica applied, so a backup that missed a few is sent only those
+    private final ReplicaOp[] ring; // Indexed by sequence number modulo the capacity
+    private long last = 0; // Sequence number of the newest operation, or of the state the window restarted from
+    private int count = 0;
+
+    RetainedOps(int capacity) {
+        this.ring = new ReplicaOp[Math.max(1, capacity)];
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % ring.length);
+    }
+
+    synchronized void add(ReplicaOp op) { // Called in sequence order
+        if (op.seq != last + 1)
+            count = 0; // Not contiguous with what is retained
+        last = op.seq;
+        ring[slot(op.seq)] = op;
+        count = Math.min(count + 1, ring.length);
+    }
+
+    synchronized void reset(long seq) { // The state was replaced wholesale; nothing up to seq is retained
+        last = seq;
+        count = 0;
+        Arrays.fill(ring, null);
+    }
+
+    // The operations after seq, for a replica whose last operation is seq from epoch opEpoch. Null if the window
+    // no longer reaches back that far, or the replica's operation at seq isn't the one retained here because it
+    // followed a different primary; it needs the full state then.
+    synchronized List<ReplicaOp> after(long seq, long opEpoch) {
+        long first = last - count + 1;
+        if (seq > last)
+            return null;
+        if (seq > 0) {
+            if (seq < first || ring[slot(seq)].epoch != opEpoch)
+                return null;
+        } else if (first != 1) {
+            return null;
+        }
+        List<ReplicaOp> ops = new ArrayList<>((int) (last - seq));
+        for (long s = seq + 1; s <= last; s++) {
+            ops.add(ring[slot(s)]);
+        }
+        return ops;
+    }
+}
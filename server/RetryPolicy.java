@@ -0,0 +1,43 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class RetryPolicy { // Deadline and backoff for calls retried after the primary failed
+    // Retry n waits a random time up to min(maxMs, baseMs * 2^(n - 1)), so callers that failed together
+    // spread out instead of retrying in lockstep. No retry starts after the deadline.
+    private final long deadlineNanos;
+    private final long baseNanos;
+    private final long maxNanos;
+
+    RetryPolicy(long deadlineMs, long baseMs, long maxMs) {
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, baseMs));
+        this.maxNanos = Math.max(baseNanos, TimeUnit.MILLISECONDS.toNanos(maxMs));
+    }
+
+    long deadline() { // For a call starting now
+        return System.nanoTime() + deadlineNanos;
+    }
+
+    long deadlineMs() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos);
+    }
+
+    // Waits before attempt number `retry` (0 is the first attempt and doesn't wait). Returns false if the
+    // deadline has passed or the thread was interrupted, and the call should give up.
+    boolean pause(int retry, long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+            return false;
+        if (retry == 0)
+            return true;
+        long ceiling = retry > 30 ? maxNanos : Math.min(maxNanos, baseNanos << (retry - 1));
+        long delay = Math.min(remaining, ThreadLocalRandom.current().nextLong(ceiling + 1));
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+public class Sequenced<T> implements java.io.Serializable { // A write's result as the primary returns it to the FrontEnd
+    private static final long serialVersionUID = 1L;
+
+    final T value;
+    final long seq;     // A replica that has applied up to here reflects the write
+    final long epoch;   // Epoch of the primary that answered, which seq is only meaningful under
+
+    Sequenced(T value, long seq, long epoch) {
+        this.value = value;
+        this.seq = seq;
+        this.epoch = epoch;
+    }
+}
@@ -2,59 +2,32 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class Server implements Auction {
-    protected List<AuctionItem> items = Collections.synchronizedList(new ArrayList<>());
-    protected List<User> users = Collections.synchronizedList(new ArrayList<>());
-    protected ConcurrentHashMap<Integer, String> bidderEmails = new ConcurrentHashMap<>();
-    protected ConcurrentHashMap<Integer, Integer> reservePrices = new ConcurrentHashMap<>();
-    protected ConcurrentHashMap<Integer, Integer> auctionCreators = new ConcurrentHashMap<>();
+    protected final AuctionBook book = new AuctionBook();
+    protected final UserRegistry users = new UserRegistry();
     protected final Object userLock = new Object();
     protected final Object itemLock = new Object();
 
 
-    private class User {
-        int userID;
-        String email;
-
-        User(int userID, String email) {
-            this.userID = userID;
-            this.email = email;
-        }
-    }
-
-
     public Server() {
         super();
     }
 
     public int register(String email) throws RemoteException { //Returning users get their key updated instead of being rejected, 
         synchronized (userLock) {                                              //returns their already existing userID for those who are returning already registered users
-            for (User user : users) {
-                if (user.email.equals(email)) {
-                    return user.userID;
-                }
-            }
-
-            int userID = users.size();
-            users.add(new User(userID, email));
-            return userID;
+            return users.register(email);
         }
     }
 
     @Override
     public AuctionItem getSpec(int itemID) throws RemoteException {
         synchronized (itemLock) {
-            for (AuctionItem item : items) {
-                if (item.itemID == itemID) {
-                    return item;
-                }
+            AuctionRecord record = book.get(itemID);
+            if (record == null) {
+                throw new RemoteException("Item not found");
             }
-            throw new RemoteException("Item not found");
+            return record.item;
         }
     }
 
@@ -62,38 +35,19 @@ public class Server implements Auction {
     public int newAuction(int userID, AuctionSaleItem item) throws RemoteException {
         synchronized (itemLock) {
             // Validate user exists
-            boolean userExists = false;
-            synchronized (userLock) {
-                for (User user : users) {
-                    if (user.userID == userID) {
-                        userExists = true;
-                        break;
-                    }
-                }
-            }
-            if (!userExists) {
+            if (!users.exists(userID)) {
                 throw new RemoteException("Invalid user ID");
             }
 
             // Create new auction item
-            AuctionItem newItem = new AuctionItem();
-            newItem.itemID = items.size();
-            newItem.name = item.name;
-            newItem.description = item.description;
-            newItem.highestBid = 0;
-
-            reservePrices.put(newItem.itemID, item.reservePrice);
-            items.add(newItem);
-            auctionCreators.put(newItem.itemID, userID);
-
-            return newItem.itemID;
+            return book.create(userID, item).item.itemID;
         }
     }
 
     @Override
     public AuctionItem[] listItems() throws RemoteException {
         synchronized (itemLock) {
-            return items.toArray(new AuctionItem[0]);
+            return book.listItems();
         }
     }
 
@@ -101,39 +55,23 @@ public class Server implements Auction {
     public AuctionResult closeAuction(int userID, int itemID) throws RemoteException {
         synchronized (itemLock) {
             // Validate creator
-            Integer creatorID = auctionCreators.get(itemID);
-            if (creatorID == null || creatorID != userID) {
+            AuctionRecord record = book.get(itemID);
+            if (record == null || record.creatorID != userID) {
                 throw new RemoteException("Only the auction creator can close this auction");
             }
 
-            // Find the item
-            AuctionItem item = null;
-            for (AuctionItem i : items) {
-                if (i.itemID == itemID) {
-                    item = i;
-                    break;
-                }
-            }
-
-            if (item == null) {
-                throw new RemoteException("Invalid item ID");
-            }
-
             // Create result
             AuctionResult result = new AuctionResult();
-            if (item.highestBid >= reservePrices.get(itemID)) {
-                result.winningEmail = bidderEmails.get(itemID);
-                result.winningPrice = item.highestBid;
+            if (record.item.highestBid >= record.reservePrice) {
+                result.winningEmail = record.bidderEmail;
+                result.winningPrice = record.item.highestBid;
             } else {
                 result.winningEmail = null;
                 result.winningPrice = 0;
             }
 
             // Cleanup
-            items.remove(item);
-            bidderEmails.remove(itemID);
-            reservePrices.remove(itemID);
-            auctionCreators.remove(itemID);
+            book.remove(itemID);
 
             return result;
         }
@@ -142,35 +80,84 @@ public class Server implements Auction {
     @Override
     public boolean bid(int userID, int itemID, int price) throws RemoteException {
         // Get bidder email
-        String bidderEmail = null;
-        synchronized (userLock) {
-            for (User user : users) {
-                if (user.userID == userID) {
-                    bidderEmail = user.email;
-                    break;
+        String bidderEmail = users.getEmail(userID);
+
+        if (bidderEmail == null) {
+            throw new RemoteException("Invalid user ID");
+        }
+
+        synchronized (itemLock) {
+            AuctionRecord record = book.get(itemID);
+            if (record == null) {
+                throw new RemoteException("Invalid item ID");
+            }
+            synchronized (record) {
+                if (price > record.item.highestBid) {
+                    record.item.highestBid = price;
+                    record.bidderEmail = bidderEmail;
+                    return true;
                 }
+                return false;
             }
         }
+    }
 
+    @Override
+    public BidResult[] bidBatch(int userID, int[] itemIDs, int[] prices) throws RemoteException {
+        if (itemIDs.length != prices.length) {
+            throw new RemoteException("Item and price counts differ");
+        }
+        String bidderEmail = users.getEmail(userID);
         if (bidderEmail == null) {
             throw new RemoteException("Invalid user ID");
         }
 
+        BidResult[] results = new BidResult[itemIDs.length];
         synchronized (itemLock) {
-            for (AuctionItem item : items) {
-                if (item.itemID == itemID) {
-                    synchronized (item) {
-                        if (price > item.highestBid) {
-                            item.highestBid = price;
-                            bidderEmails.put(itemID, bidderEmail);
-                            return true;
-                        }
-                        return false;
+            for (int i = 0; i < itemIDs.length; i++) {
+                AuctionRecord record = book.get(itemIDs[i]);
+                if (record == null) {
+                    results[i] = BidResult.INVALID_ITEM;
+                    continue;
+                }
+                synchronized (record) {
+                    if (prices[i] > record.item.highestBid) {
+                        record.item.highestBid = prices[i];
+                        record.bidderEmail = bidderEmail;
+                        results[i] = BidResult.ACCEPTED;
+                    } else {
+                        results[i] = BidResult.TOO_LOW;
                     }
                 }
             }
         }
-        throw new RemoteException("Invalid item ID");
+        return results;
+    }
+
+    @Override
+    public AuctionItem[] getSpecBatch(int[] itemIDs) throws RemoteException {
+        synchronized (itemLock) {
+            AuctionItem[] items = new AuctionItem[itemIDs.length];
+            for (int i = 0; i < itemIDs.length; i++) {
+                AuctionRecord record = book.get(itemIDs[i]);
+                items[i] = record == null ? null : record.item;
+            }
+            return items;
+        }
+    }
+
+    @Override
+    public AuctionPage listItemsPage(AuctionFilter filter, int cursor, int pageSize) throws RemoteException {
+        synchronized (itemLock) {
+            return book.page(filter, cursor, pageSize);
+        }
+    }
+
+    @Override
+    public AuctionDelta listItemsSince(long version) throws RemoteException {
+        synchronized (itemLock) {
+            return book.changesSince(-1, 0); // Server doesn't sequence its writes, so every call gets the full listing
+        }
     }
 
     public int getPrimaryReplicaID() throws RemoteException {
@@ -0,0 +1,23 @@
+import java.rmi.RemoteException;
+
+public class StaleReadException extends RemoteException { // Thrown by a backup asked to read at a sequence it hasn't applied yet
+    private static final long serialVersionUID = 1L;
+    private final long seq; // Last sequence number the backup has applied
+
+    public StaleReadException(String message, long seq) {
+        super(message);
+        this.seq = seq;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    static StaleReadException unwrap(Throwable e) { // RMI delivers it wrapped in a ServerException
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof StaleReadException)
+                return (StaleReadException) t;
+        }
+        return null;
+    }
+}
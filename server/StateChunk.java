@@ -0,0 +1,91 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class StateChunk implements Externalizable { // One piece of a replica's state, pulled in order by a joining replica
+    private static final long serialVersionUID = 1L;
+
+    enum Phase { USERS, ITEMS, CLOSED }
+    private static final Phase[] PHASES = Phase.values();
+
+    Phase phase;
+    long seq;               // Source's last sequence number, read before the chunk was copied
+    long epoch;
+    long opEpoch;           // Epoch of the source's operation at seq, or of a later one
+    int next = -1;          // Position to ask for next in this phase, -1 once the phase is complete
+    String[] emails;        // USERS: by userID from the position asked for, null for gaps
+    AuctionRecord[] records; // ITEMS
+    int nextItemID;         // ITEMS
+    long closedFloor;       // CLOSED
+    long[] closedSeqs;      // CLOSED: sequence number that closed each closedItems entry
+    int[] closedItems;
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(phase.ordinal());
+        Codec.writeVarLong(out, seq);
+        Codec.writeVarLong(out, epoch);
+        Codec.writeVarLong(out, opEpoch);
+        Codec.writeVarInt(out, next + 1);
+        Codec.StringTable strings = new Codec.StringTable();
+        switch (phase) {
+            case USERS:
+                Codec.writeVarInt(out, emails.length);
+                for (String email : emails) {
+                    Codec.writeString(out, email);
+                }
+                break;
+            case ITEMS:
+                Codec.writeVarInt(out, nextItemID);
+                Codec.writeVarInt(out, records.length);
+                for (AuctionRecord record : records) {
+                    record.writeTo(out, strings);
+                }
+                break;
+            case CLOSED:
+                Codec.writeVarLong(out, closedFloor);
+                Codec.writeVarInt(out, closedSeqs.length);
+                for (int i = 0; i < closedSeqs.length; i++) {
+                    Codec.writeVarLong(out, closedSeqs[i]);
+                    Codec.writeVarInt(out, closedItems[i]);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        phase = PHASES[in.readByte()];
+        seq = Codec.readVarLong(in);
+        epoch = Codec.readVarLong(in);
+        opEpoch = Codec.readVarLong(in);
+        next = Codec.readVarInt(in) - 1;
+        Codec.StringTable strings = new Codec.StringTable();
+        switch (phase) {
+            case USERS:
+                emails = new String[Codec.readVarInt(in)];
+                for (int i = 0; i < emails.length; i++) {
+                    emails[i] = Codec.readString(in);
+                }
+                break;
+            case ITEMS:
+                nextItemID = Codec.readVarInt(in);
+                records = new AuctionRecord[Codec.readVarInt(in)];
+                for (int i = 0; i < records.length; i++) {
+                    records[i] = AuctionRecord.readFrom(in, strings);
+                }
+                break;
+            case CLOSED:
+                closedFloor = Codec.readVarLong(in);
+                int n = Codec.readVarInt(in);
+                closedSeqs = new long[n];
+                closedItems = new int[n];
+                for (int i = 0; i < n; i++) {
+                    closedSeqs[i] = Codec.readVarLong(in);
+                    closedItems[i] = Codec.readVarInt(in);
+                }
+                break;
+        }
+    }
+}
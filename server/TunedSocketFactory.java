@@ -0,0 +1,349 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Sockets for exported remote objects: TCP_NODELAY, buffer sizes, connect and read timeouts, and optionally
+// compression. The client half travels inside the stub, so callers use the settings of the process that exported
+// the object. A read timeout turns a hung peer into an UnmarshalException, which callers treat as a transport
+// failure; it has to be longer than the slowest legitimate call, such as a large state transfer.
+public class TunedSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Compression works per message: everything written between two flushes is one frame, deflated if it is
+    // at least compressAbove bytes and comes out smaller. Frame: kind, raw length, then the raw bytes or the
+    // compressed length and the compressed bytes.
+    private static final int RAW = 0;
+    private static final int DEFLATED = 1;
+    private static final int MAX_FRAME = 1 << 30;
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs; // 0 waits forever
+    private final boolean tcpNoDelay;
+    private final int sendBufferBytes; // 0 leaves the OS default
+    private final int receiveBufferBytes;
+    private final int compressAbove; // 0 turns compression off
+
+    TunedSocketFactory(int connectTimeoutMs, int readTimeoutMs, boolean tcpNoDelay, int sendBufferBytes,
+            int receiveBufferBytes, int compressAbove) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferBytes = sendBufferBytes;
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.compressAbove = compressAbove;
+    }
+
+    static TunedSocketFactory fromProperties() {
+        return new TunedSocketFactory(Integer.getInteger("rmi.connectTimeoutMs", 2000),
+                Integer.getInteger("rmi.readTimeoutMs", 30000),
+                Boolean.parseBoolean(System.getProperty("rmi.tcpNoDelay", "true")),
+                Integer.getInteger("rmi.sendBufferBytes", 64 << 10),
+                Integer.getInteger("rmi.receiveBufferBytes", 64 << 10),
+                Integer.getInteger("rmi.compressAboveBytes", 0));
+    }
+
+    // The same settings with a longer read timeout, for an object whose calls wait on slower calls of their own
+    TunedSocketFactory withReadTimeoutExtendedBy(long ms) {
+        int readTimeout = readTimeoutMs == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, readTimeoutMs + ms);
+        return new TunedSocketFactory(connectTimeoutMs, readTimeout, tcpNoDelay, sendBufferBytes, receiveBufferBytes,
+                compressAbove);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new TunedSocket(readTimeoutMs, compressAbove);
+        try {
+            if (receiveBufferBytes > 0)
+                socket.setReceiveBufferSize(receiveBufferBytes); // Before connecting, so the window is negotiated
+            if (sendBufferBytes > 0)
+                socket.setSendBufferSize(sendBufferBytes);
+            socket.setTcpNoDelay(tcpNoDelay);
+            socket.setSoTimeout(readTimeoutMs);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        TunedServerSocket server = new TunedServerSocket(this);
+        try {
+            if (receiveBufferBytes > 0)
+                server.setReceiveBufferSize(receiveBufferBytes); // Inherited by accepted sockets
+            server.bind(new InetSocketAddress(port));
+            return server;
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    // RMI reuses connections and listening ports across stubs whose factories are equal
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TunedSocketFactory))
+            return false;
+        TunedSocketFactory other = (TunedSocketFactory) o;
+        return connectTimeoutMs == other.connectTimeoutMs && readTimeoutMs == other.readTimeoutMs
+                && tcpNoDelay == other.tcpNoDelay && sendBufferBytes == other.sendBufferBytes
+                && receiveBufferBytes == other.receiveBufferBytes && compressAbove == other.compressAbove;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(connectTimeoutMs, readTimeoutMs, tcpNoDelay, sendBufferBytes, receiveBufferBytes, compressAbove);
+    }
+
+    private static final class TunedServerSocket extends ServerSocket {
+        private final TunedSocketFactory factory;
+
+        TunedServerSocket(TunedSocketFactory factory) throws IOException {
+            this.factory = factory;
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            if (isClosed())
+                throw new SocketException("Socket is closed");
+            // No read timeout on this side: RMI keeps idle connections open waiting for the next call
+            Socket socket = new TunedSocket(0, factory.compressAbove);
+            implAccept(socket);
+            socket.setTcpNoDelay(factory.tcpNoDelay);
+            if (factory.sendBufferBytes > 0)
+                socket.setSendBufferSize(factory.sendBufferBytes);
+            return socket;
+        }
+    }
+
+    private static final class TunedSocket extends Socket {
+        private final int readTimeoutMs;
+        private final int compressAbove;
+        private InputStream in;
+        private OutputStream out;
+
+        TunedSocket(int readTimeoutMs, int compressAbove) {
+            this.readTimeoutMs = readTimeoutMs;
+            this.compressAbove = compressAbove;
+        }
+
+        @Override
+        public synchronized void setSoTimeout(int timeout) throws SocketException {
+            // RMI sets its own timeout for the connection handshake and clears it afterwards; neither may
+            // wait longer than the read timeout
+            boolean shorter = timeout > 0 && timeout < readTimeoutMs;
+            super.setSoTimeout(readTimeoutMs == 0 || shorter ? timeout : readTimeoutMs);
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (compressAbove == 0)
+                return super.getInputStream();
+            if (in == null)
+                in = new FrameInputStream(super.getInputStream());
+            return in;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (compressAbove == 0)
+                return super.getOutputStream();
+            if (out == null)
+                out = new FrameOutputStream(super.getOutputStream(), compressAbove);
+            return out;
+        }
+    }
+
+    private static final class FrameOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final int compressAbove;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] header = new byte[9];
+        private byte[] buf = new byte[8192]; // The message being written, sent on flush
+        private int count = 0;
+        private byte[] packed = new byte[8192];
+
+        FrameOutputStream(OutputStream out, int compressAbove) {
+            this.out = out;
+            this.compressAbove = compressAbove;
+        }
+
+        private void ensure(int more) {
+            if (count + more > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(count + more, buf.length * 2));
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                int size = count >= compressAbove ? deflate() : count;
+                if (size < count) {
+                    writeHeader(DEFLATED, count, size);
+                    out.write(header, 0, 9);
+                    out.write(packed, 0, size);
+                } else {
+                    writeHeader(RAW, count, 0);
+                    out.write(header, 0, 5);
+                    out.write(buf, 0, count);
+                }
+                count = 0;
+            }
+            out.flush();
+        }
+
+        private int deflate() { // Compresses buf into packed, returning the compressed size
+            deflater.reset();
+            deflater.setInput(buf, 0, count);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == packed.length)
+                    packed = Arrays.copyOf(packed, packed.length * 2);
+                size += deflater.deflate(packed, size, packed.length - size);
+            }
+            return size;
+        }
+
+        private void writeHeader(int kind, int raw, int compressed) {
+            header[0] = (byte) kind;
+            putInt(1, raw);
+            putInt(5, compressed);
+        }
+
+        private void putInt(int at, int v) {
+            header[at] = (byte) (v >>> 24);
+            header[at + 1] = (byte) (v >>> 16);
+            header[at + 2] = (byte) (v >>> 8);
+            header[at + 3] = (byte) v;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    private static final class FrameInputStream extends InputStream {
+        private final DataInputStream in;
+        private final Inflater inflater = new Inflater();
+        private byte[] buf = new byte[8192]; // The current message
+        private int pos = 0;
+        private int limit = 0;
+        private byte[] packed = new byte[8192];
+
+        FrameInputStream(InputStream in) {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+        }
+
+        private boolean fill() throws IOException { // Reads the next frame; false at the end of the stream
+            int kind = in.read();
+            if (kind < 0)
+                return false;
+            int raw = in.readInt();
+            if (raw < 0 || raw > MAX_FRAME)
+                throw new StreamCorruptedException("Bad frame length " + raw);
+            if (buf.length < raw)
+                buf = new byte[Math.max(raw, buf.length * 2)];
+            if (kind == RAW) {
+                in.readFully(buf, 0, raw);
+            } else if (kind == DEFLATED) {
+                int size = in.readInt();
+                if (size < 0 || size > MAX_FRAME)
+                    throw new StreamCorruptedException("Bad frame length " + size);
+                if (packed.length < size)
+                    packed = new byte[Math.max(size, packed.length * 2)];
+                in.readFully(packed, 0, size);
+                inflater.reset();
+                inflater.setInput(packed, 0, size);
+                try {
+                    int n = 0;
+                    while (n < raw && !inflater.finished()) {
+                        int got = inflater.inflate(buf, n, raw - n);
+                        if (got == 0 && inflater.needsInput())
+                            throw new EOFException("Truncated compressed frame");
+                        n += got;
+                    }
+                    if (n != raw)
+                        throw new StreamCorruptedException("Compressed frame holds " + n + " bytes, not " + raw);
+                } catch (DataFormatException e) {
+                    throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+                }
+            } else {
+                throw new StreamCorruptedException("Unknown frame kind " + kind);
+            }
+            pos = 0;
+            limit = raw;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (pos == limit) {
+                if (!fill())
+                    return -1;
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            while (pos == limit) {
+                if (!fill())
+                    return -1;
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            in.close();
+        }
+    }
+}
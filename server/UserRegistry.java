@@ -0,0 +1,133 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class UserRegistry {
+    protected static class User {
+        final int userID;
+        final String email;
+
+        User(int userID, String email) {
+            this.userID = userID;
+            this.email = email;
+        }
+    }
+
+    // email -> userID, and a dense array indexed by userID. Readers never lock:
+    // a slot is written before count is published, so any userID < count is visible.
+    private volatile ConcurrentHashMap<String, Integer> emailIndex = new ConcurrentHashMap<>();
+    private volatile User[] users = new User[16];
+    private volatile int count = 0;
+
+    public int getUserID(String email) { // Returns -1 if the email isn't registered
+        Integer userID = emailIndex.get(email);
+        return userID == null ? -1 : userID;
+    }
+
+    public User get(int userID) {
+        if (userID < 0 || userID >= count) {
+            return null;
+        }
+        return users[userID];
+    }
+
+    public boolean exists(int userID) {
+        return get(userID) != null;
+    }
+
+    public String getEmail(int userID) {
+        User user = get(userID);
+        return user == null ? null : user.email;
+    }
+
+    public synchronized int register(String email) { // Returns the existing userID or allocates the next one
+        Integer existing = emailIndex.get(email);
+        if (existing != null) {
+            return existing;
+        }
+        int userID = count;
+        put(new User(userID, email));
+        return userID;
+    }
+
+    public synchronized void add(int userID, String email) { // Stores a replicated user under the userID the primary gave it
+        if (get(userID) == null) {
+            put(new User(userID, email));
+        }
+    }
+
+    private void put(User user) { // Callers hold the registry monitor
+        User[] current = users;
+        if (user.userID >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, user.userID + 1));
+            users = current;
+        }
+        current[user.userID] = user;
+        emailIndex.put(user.email, user.userID);
+        if (user.userID >= count) {
+            count = user.userID + 1;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public synchronized UserRegistry snapshot() {
+        UserRegistry copy = new UserRegistry();
+        copy.restore(this);
+        return copy;
+    }
+
+    public synchronized void restore(UserRegistry other) { // Replaces this registry's contents with another's
+        int n = other.count;
+        User[] source = other.users;
+        User[] copy = Arrays.copyOf(source, Math.max(16, n));
+        ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<>(Math.max(16, n * 2));
+        for (int i = 0; i < n; i++) {
+            if (copy[i] != null) {
+                index.put(copy[i].email, i);
+            }
+        }
+        emailIndex = index;
+        users = copy;
+        count = n;
+    }
+
+    void copyRange(StateChunk chunk, int from, int max) { // Emails of up to max userIDs from from, for state transfer
+        int n = count;
+        User[] current = users;
+        int start = Math.min(Math.max(0, from), n);
+        int end = (int) Math.min(n, (long) start + max);
+        chunk.emails = new String[end - start];
+        for (int i = start; i < end; i++) {
+            chunk.emails[i - start] = current[i] == null ? null : current[i].email;
+        }
+        chunk.next = end < n ? end : -1;
+    }
+
+    // Only the emails go on the wire, through the table the auction book's bidder emails share;
+    // the userID is the position and the index is rebuilt on read
+    synchronized void writeTo(DataOutput out, Codec.StringTable emails) throws IOException {
+        int n = count;
+        Codec.writeVarInt(out, n);
+        for (int i = 0; i < n; i++) {
+            emails.write(out, users[i] == null ? null : users[i].email); // Gaps only exist mid-replay
+        }
+    }
+
+    synchronized void readFrom(DataInput in, Codec.StringTable emails) throws IOException {
+        int n = Codec.readVarInt(in);
+        emailIndex = new ConcurrentHashMap<>(Math.max(16, n * 2));
+        users = new User[Math.max(16, n)];
+        count = 0;
+        for (int i = 0; i < n; i++) {
+            String email = emails.read(in);
+            if (email != null) {
+                put(new User(i, email));
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog { // Append-only log of everything a replica applied, replayed when it restarts
+    // ALWAYS: a write is fsynced before it is acknowledged, concurrent writers sharing one fsync.
+    // INTERVAL: written and fsynced in the background every syncIntervalMs. NONE: written in the
+    // background and left to the OS to persist.
+    enum Sync { ALWAYS, INTERVAL, NONE }
+
+    interface Replay {
+        void op(ReplicaOp op);
+        void state(ReplicaState state);
+    }
+
+    // Record: payload length, CRC32 of type and payload, type, payload
+    private static final byte OP = 1;
+    private static final byte STATE = 2;
+    private static final int MAX_RECORD = 1 << 30;
+    private static final String SUFFIX = ".wal";
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer contents() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private static final class RecordInput extends ByteArrayInputStream {
+        RecordInput() {
+            super(new byte[0]);
+        }
+
+        void reset(byte[] data, int length) {
+            buf = data;
+            pos = 0;
+            count = length;
+            mark = 0;
+        }
+    }
+
+    private final Path dir;
+    private final Sync sync;
+    private final long segmentBytes;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "wal-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Appending only copies into memory, guarded by this
+    private Buffer pending = new Buffer(1 << 16);
+    private Buffer spare = new Buffer(1 << 16);
+    private final Buffer record = new Buffer(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private long appended = 0; // Records appended since the log was opened
+
+    // Writing to disk, guarded by flushLock. One flush writes everything appended so far.
+    private final Object flushLock = new Object();
+    private FileChannel segment;
+    private int segmentNumber;
+    private volatile long flushed = 0; // Records written, and forced unless the policy is NONE
+    private volatile IOException failure; // The log stops accepting writes after an I/O error
+
+    WriteAheadLog(Path dir, Sync sync, long syncIntervalMs, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.sync = sync;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        if (sync != Sync.ALWAYS) {
+            timer.scheduleWithFixedDelay(() -> {
+                try {
+                    flush(appendedCount(), sync == Sync.INTERVAL);
+                } catch (IOException e) {
+                    System.err.println("Write-ahead log flush failed: " + e.getMessage());
+                }
+            }, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static int numberOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private Path pathOf(int number) {
+        return dir.resolve(String.format("%010d%s", number, SUFFIX));
+    }
+
+    // Feeds every intact record from segment fromSegment on to the replay in order, and opens the log for
+    // appending after the last one. Earlier segments are covered by a snapshot. A torn or corrupt record ends
+    // the replay; it and anything after it are set aside, not appended to. Returns the number of records replayed.
+    long replay(Replay replay, int fromSegment) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        for (Path path : segments()) {
+            if (numberOf(path) >= fromSegment)
+                segments.add(path);
+        }
+        long records = 0;
+        byte[] data = new byte[4096];
+        RecordInput input = new RecordInput();
+        DataInputStream payload = new DataInputStream(input);
+        Path last = null;
+        long lastValid = 0;
+        boolean corrupt = false;
+
+        for (Path path : segments) {
+            if (corrupt) {
+                Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+                continue;
+            }
+            last = path;
+            lastValid = 0;
+            try (InputStream file = Files.newInputStream(path);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 20))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break; // Clean end, or a header torn by a crash
+                    }
+                    int checksum = in.readInt();
+                    if (length < 1 || length > MAX_RECORD) {
+                        corrupt = true;
+                        break;
+                    }
+                    if (data.length < length) {
+                        data = new byte[Math.max(length, data.length * 2)];
+                    }
+                    in.readFully(data, 0, length);
+                    crc.reset();
+                    crc.update(data, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        corrupt = true;
+                        break;
+                    }
+
+                    input.reset(data, length);
+                    byte type = payload.readByte();
+                    if (type == OP) {
+                        ReplicaOp op = new ReplicaOp();
+                        op.readFrom(payload);
+                        replay.op(op);
+                    } else if (type == STATE) {
+                        ReplicaState state = new ReplicaState();
+                        state.readFrom(payload);
+                        replay.state(state);
+                    } else {
+                        corrupt = true;
+                        break;
+                    }
+                    lastValid += 8 + length;
+                    records++;
+                }
+            } catch (EOFException e) {
+                // A record torn by a crash can only be at the end of the newest segment
+                corrupt = !path.equals(segments.get(segments.size() - 1));
+            }
+            if (corrupt) {
+                System.err.println("Write-ahead log " + path + " is corrupt after " + lastValid + " bytes, ignoring the rest");
+            }
+        }
+
+        synchronized (flushLock) {
+            if (last == null) {
+                segmentNumber = Math.max(1, fromSegment);
+                segment = FileChannel.open(pathOf(segmentNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            } else {
+                segmentNumber = numberOf(last);
+                segment = FileChannel.open(last, StandardOpenOption.WRITE);
+                segment.truncate(lastValid); // Drops a torn tail so new records follow the last good one
+                segment.position(lastValid);
+            }
+        }
+        return records;
+    }
+
+    synchronized void append(ReplicaOp op) {
+        try {
+            record.reset();
+            recordOut.writeByte(OP);
+            op.writeTo(recordOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Writing to memory
+        }
+        appendRecord();
+    }
+
+    synchronized void append(ReplicaState state) { // A full state replaces everything before it on replay
+        try {
+            record.reset();
+            recordOut.writeByte(STATE);
+            state.writeTo(recordOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        appendRecord();
+    }
+
+    private void appendRecord() { // Callers hold this
+        crc.reset();
+        crc.update(record.array(), 0, record.size());
+        pending.writeInt(record.size());
+        pending.writeInt((int) crc.getValue());
+        pending.write(record.array(), 0, record.size());
+        appended++;
+    }
+
+    synchronized long appendedCount() {
+        return appended;
+    }
+
+    // Returns once every record appended so far is as durable as the policy promises before an acknowledgement
+    void sync() throws IOException {
+        if (failure != null)
+            throw failure;
+        if (sync == Sync.ALWAYS)
+            flush(appendedCount(), true);
+    }
+
+    private void flush(long target, boolean force) throws IOException {
+        synchronized (flushLock) {
+            if (failure != null)
+                throw failure;
+            if (flushed >= target)
+                return; // Written by another writer's flush
+
+            Buffer full;
+            long upTo;
+            synchronized (this) {
+                full = pending;
+                pending = spare;
+                spare = null;
+                upTo = appended;
+            }
+            try {
+                ByteBuffer bytes = full.contents();
+                while (bytes.hasRemaining()) {
+                    segment.write(bytes);
+                }
+                if (force)
+                    segment.force(false);
+                flushed = upTo;
+                if (segment.position() >= segmentBytes)
+                    roll();
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                full.reset();
+                synchronized (this) {
+                    spare = full;
+                }
+            }
+        }
+    }
+
+    // Writes out everything appended so far and starts a new segment, returning its number. Every record
+    // appended before the call is in an earlier segment.
+    int startSegment() throws IOException {
+        synchronized (flushLock) {
+            flush(appendedCount(), true);
+            roll();
+            return segmentNumber;
+        }
+    }
+
+    void truncateBefore(int number) throws IOException { // Deletes the segments a snapshot has made redundant
+        for (Path path : segments()) {
+            if (numberOf(path) < number)
+                Files.deleteIfExists(path);
+        }
+    }
+
+    private void roll() throws IOException { // Callers hold flushLock
+        segment.force(false);
+        segment.close();
+        segmentNumber++;
+        segment = FileChannel.open(pathOf(segmentNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    void close() {
+        timer.shutdownNow();
+        try {
+            flush(appendedCount(), sync != Sync.NONE);
+            synchronized (flushLock) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing write-ahead log: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import org.junit.jupiter.api.Test;
+
+// Every Externalizable wire type must read back exactly what was written, field by field
+class CodecRoundTripTest {
+    private static final long BIG = (1L << 40) + 12345; // Takes a multi-byte varint
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Serializable> T roundTrip(T value) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static AuctionSaleItem sale(String name, String description, int reservePrice) {
+        AuctionSaleItem sale = new AuctionSaleItem();
+        sale.name = name;
+        sale.description = description;
+        sale.reservePrice = reservePrice;
+        return sale;
+    }
+
+    private static AuctionRecord record(int itemID, String name, int highestBid, String bidderEmail, long version) {
+        AuctionRecord record = new AuctionRecord();
+        record.item = new AuctionItem();
+        record.item.itemID = itemID;
+        record.item.name = name;
+        record.item.description = "Lot " + itemID + " été ✓";
+        record.item.highestBid = highestBid;
+        record.reservePrice = 50;
+        record.creatorID = itemID % 3;
+        record.bidderEmail = bidderEmail;
+        record.version = version;
+        return record;
+    }
+
+    private static void assertItem(AuctionItem expected, AuctionItem actual) {
+        assertNotNull(actual);
+        assertEquals(expected.itemID, actual.itemID);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.description, actual.description);
+        assertEquals(expected.highestBid, actual.highestBid);
+    }
+
+    private static void assertRecord(AuctionRecord expected, AuctionRecord actual) {
+        assertNotNull(actual);
+        assertItem(expected.item, actual.item);
+        assertEquals(expected.reservePrice, actual.reservePrice);
+        assertEquals(expected.creatorID, actual.creatorID);
+        assertEquals(expected.bidderEmail, actual.bidderEmail);
+        assertEquals(expected.version, actual.version);
+    }
+
+    private static void assertClosed(AuctionBook expected, AuctionBook actual) {
+        StateChunk want = new StateChunk();
+        StateChunk got = new StateChunk();
+        expected.copyClosed(want);
+        actual.copyClosed(got);
+        assertEquals(want.closedFloor, got.closedFloor);
+        assertArrayEquals(want.closedSeqs, got.closedSeqs);
+        assertArrayEquals(want.closedItems, got.closedItems);
+    }
+
+    @Test
+    void replicaStateKeepsUsersAuctionsAndClosedAuctions() throws Exception {
+        UserRegistry users = new UserRegistry();
+        users.add(0, "alice@example.com");
+        users.add(2, "bob@example.com"); // userID 1 is a gap, written as a null email
+        users.add(3, "carol+ü@example.com");
+
+        AuctionBook book = new AuctionBook();
+        book.insert(record(0, "Bike", 0, null, 1)); // No bids yet
+        book.insert(record(1, "Lamp", 75, "alice@example.com", BIG)); // Emails repeat, so they go by reference
+        book.insert(record(2, "Desk", 120, "alice@example.com", 7));
+        book.insert(record(3, "Sofa", 60, "bob@example.com", 8));
+        book.insert(record(5, "Kettle", 10, "dave@example.com", 9)); // Bidder that isn't a user here
+        book.closed(4, 10);
+        book.closed(6, BIG + 1);
+
+        ReplicaState state = roundTrip(new ReplicaState(book, users, BIG + 1, 3, 4));
+
+        assertEquals(BIG + 1, state.getLastSeq());
+        assertEquals(3, state.getLastOpEpoch());
+        assertEquals(4, state.getEpoch());
+
+        UserRegistry readUsers = state.getUsers();
+        assertEquals(users.size(), readUsers.size());
+        for (int userID = 0; userID < users.size(); userID++) {
+            assertEquals(users.getEmail(userID), readUsers.getEmail(userID));
+        }
+        assertNull(readUsers.get(1));
+        assertEquals(2, readUsers.getUserID("bob@example.com"));
+        assertEquals(3, readUsers.getUserID("carol+ü@example.com"));
+
+        AuctionBook readBook = state.getBook();
+        assertEquals(book.size(), readBook.size());
+        assertEquals(book.getNextItemID(), readBook.getNextItemID());
+        for (int itemID = 0; itemID < book.getNextItemID(); itemID++) {
+            AuctionRecord expected = book.get(itemID);
+            if (expected == null) {
+                assertNull(readBook.get(itemID));
+            } else {
+                assertRecord(expected, readBook.get(itemID));
+            }
+        }
+        assertClosed(book, readBook);
+    }
+
+    @Test
+    void replicaOpsOfEveryKind() throws Exception {
+        AuctionRecord created = record(7, "Clock", 0, null, 0);
+        ReplicaOp[] ops = {
+                ReplicaOp.register(42, "erin@example.com"),
+                ReplicaOp.newAuction(created),
+                ReplicaOp.bid(7, 1_000_000, "erin@example.com"),
+                ReplicaOp.close(7),
+        };
+        assertEquals(ReplicaOp.Type.values().length, ops.length);
+        for (int i = 0; i < ops.length; i++) {
+            ops[i].seq = BIG + i;
+            ops[i].epoch = i + 1;
+        }
+
+        for (ReplicaOp op : ops) {
+            ReplicaOp read = roundTrip(op);
+            assertEquals(op.type, read.type);
+            assertEquals(op.seq, read.seq);
+            assertEquals(op.epoch, read.epoch);
+            assertEquals(op.userID, read.userID);
+            assertEquals(op.itemID, read.itemID);
+            assertEquals(op.price, read.price);
+            assertEquals(op.email, read.email);
+            assertEquals(op.name, read.name);
+            assertEquals(op.description, read.description);
+        }
+    }
+
+    @Test
+    void clientWireTypes() throws Exception {
+        AuctionItem item = record(9, "Vase", 300, null, 0).item;
+        assertItem(item, roundTrip(item));
+
+        AuctionItem unnamed = new AuctionItem(); // Null strings and zero fields
+        assertItem(unnamed, roundTrip(unnamed));
+
+        AuctionSaleItem sale = sale("Rug", "Hand é woven", Integer.MAX_VALUE);
+        AuctionSaleItem readSale = roundTrip(sale);
+        assertEquals(sale.name, readSale.name);
+        assertEquals(sale.description, readSale.description);
+        assertEquals(sale.reservePrice, readSale.reservePrice);
+
+        AuctionResult won = new AuctionResult();
+        won.winningEmail = "frank@example.com";
+        won.winningPrice = 450;
+        AuctionResult readWon = roundTrip(won);
+        assertEquals(won.winningEmail, readWon.winningEmail);
+        assertEquals(won.winningPrice, readWon.winningPrice);
+
+        AuctionResult unsold = new AuctionResult(); // Reserve not met
+        AuctionResult readUnsold = roundTrip(unsold);
+        assertNull(readUnsold.winningEmail);
+        assertEquals(0, readUnsold.winningPrice);
+    }
+
+    @Test
+    void stateChunksOfEveryPhase() throws Exception {
+        UserRegistry users = new UserRegistry();
+        users.add(0, "alice@example.com");
+        users.add(2, "bob@example.com");
+        StateChunk userChunk = new StateChunk();
+        userChunk.phase = StateChunk.Phase.USERS;
+        userChunk.seq = BIG;
+        userChunk.epoch = 2;
+        userChunk.opEpoch = 1;
+        users.copyRange(userChunk, 0, 2); // Two of the three userIDs, one of them a gap
+        StateChunk readUsers = roundTrip(userChunk);
+        assertEquals(StateChunk.Phase.USERS, readUsers.phase);
+        assertEquals(BIG, readUsers.seq);
+        assertEquals(2, readUsers.epoch);
+        assertEquals(1, readUsers.opEpoch);
+        assertEquals(2, readUsers.next);
+        assertArrayEquals(new String[] { "alice@example.com", null }, readUsers.emails);
+
+        AuctionBook book = new AuctionBook();
+        book.insert(record(0, "Bike", 0, null, 1));
+        book.insert(record(1, "Lamp", 75, "alice@example.com", 5));
+        book.insert(record(3, "Desk", 120, "alice@example.com", BIG));
+        StateChunk itemChunk = new StateChunk();
+        itemChunk.phase = StateChunk.Phase.ITEMS;
+        book.copyRange(itemChunk, 0, 10);
+        StateChunk readItems = roundTrip(itemChunk);
+        assertEquals(StateChunk.Phase.ITEMS, readItems.phase);
+        assertEquals(-1, readItems.next);
+        assertEquals(itemChunk.nextItemID, readItems.nextItemID);
+        assertEquals(itemChunk.records.length, readItems.records.length);
+        for (int i = 0; i < itemChunk.records.length; i++) {
+            assertRecord(itemChunk.records[i], readItems.records[i]);
+        }
+
+        book.closed(2, 6);
+        book.closed(4, BIG + 1);
+        StateChunk closedChunk = new StateChunk();
+        closedChunk.phase = StateChunk.Phase.CLOSED;
+        book.copyClosed(closedChunk);
+        StateChunk readClosed = roundTrip(closedChunk);
+        assertEquals(StateChunk.Phase.CLOSED, readClosed.phase);
+        assertEquals(closedChunk.closedFloor, readClosed.closedFloor);
+        assertArrayEquals(closedChunk.closedSeqs, readClosed.closedSeqs);
+        assertArrayEquals(closedChunk.closedItems, readClosed.closedItems);
+    }
+}